@@ -1,3 +1,14 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
 // Receiver from the class diagram
 @SuppressWarnings("all")
 class Light {
@@ -45,6 +56,12 @@ class Thermostat {
 interface ICommand {
     void execute();
     void undo();
+    
+    // The receiver this command acts on; a CommandBus runs commands for the same receiver one at a time.
+    // null means unknown or several receivers, and such a command is run on its own, after everything before it.
+    default Object getReceiver() {
+        return null;
+    }
 }
 
 // ConcreteCommand from the class diagram
@@ -64,6 +81,11 @@ class LightOnCommand implements ICommand {
     public void undo() {
         light.turnOff();
     }
+    
+    @Override
+    public Object getReceiver() {
+        return light;
+    }
 }
 
 // Another ConcreteCommand
@@ -83,6 +105,11 @@ class LightOffCommand implements ICommand {
     public void undo() {
         light.turnOn();
     }
+    
+    @Override
+    public Object getReceiver() {
+        return light;
+    }
 }
 
 // Another ConcreteCommand
@@ -106,6 +133,20 @@ class ThermostatSetCommand implements ICommand {
     public void undo() {
         thermostat.setTemperature(previousTemperature);
     }
+    
+    public Thermostat getThermostat() {
+        return thermostat;
+    }
+    
+    // The temperature the last execute() replaced
+    public int getPreviousTemperature() {
+        return previousTemperature;
+    }
+    
+    @Override
+    public Object getReceiver() {
+        return thermostat;
+    }
 }
 
 // A composite command (Macro command)
@@ -130,11 +171,265 @@ class MacroCommand implements ICommand {
             commands[i].undo();
         }
     }
+    
+    // Only a macro whose commands all share one receiver can run alongside other receivers' commands
+    @Override
+    public Object getReceiver() {
+        Object receiver = commands.length > 0 ? commands[0].getReceiver() : null;
+        for (ICommand command : commands) {
+            if (command.getReceiver() != receiver) {
+                return null;
+            }
+        }
+        return receiver;
+    }
+}
+
+// Asynchronous command bus - callers enqueue commands and get a future back instead of running them.
+// Submitters (many) hand commands to one dispatcher thread through a bounded queue; the dispatcher chains
+// each command behind the previous one for the same receiver and runs it on the worker executor. So a
+// receiver's commands execute one at a time in submission order, while different receivers run in parallel.
+// The number of commands queued or running is bounded by capacity; submit() blocks when it is reached.
+class CommandBus implements AutoCloseable {
+    // Queued by close() behind everything already submitted; tells the dispatcher to stop
+    private static final Pending SHUTDOWN = new Pending(null, false, null);
+    
+    private static final class Pending {
+        final ICommand command;
+        final boolean undo;
+        final Consumer<ICommand> onExecuted; // may be null
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        
+        Pending(ICommand command, boolean undo, Consumer<ICommand> onExecuted) {
+            this.command = command;
+            this.undo = undo;
+            this.onExecuted = onExecuted;
+        }
+    }
+    
+    private final ArrayBlockingQueue<Pending> queue;
+    private final Semaphore capacity;
+    private final int limit;
+    private final ExecutorService workers;
+    private final boolean ownsWorkers;
+    private final Thread dispatcher;
+    private volatile boolean closed;
+    
+    // Dispatcher-thread state: the last command per receiver, and the last receiver-less command
+    private final HashMap<Object, CompletableFuture<Void>> lanes = new HashMap<>();
+    private CompletableFuture<Void> barrier = CompletableFuture.completedFuture(null);
+    
+    // Receivers are usually slow because they wait on devices, not on the CPU, so the default workers are a
+    // cached pool; the capacity bound also caps how many of them can be busy
+    public CommandBus(int capacity) {
+        this(capacity, Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "command-worker");
+            t.setDaemon(true);
+            return t;
+        }), true);
+    }
+    
+    public CommandBus(int capacity, ExecutorService workers) {
+        this(capacity, workers, false);
+    }
+    
+    private CommandBus(int capacity, ExecutorService workers, boolean ownsWorkers) {
+        // One slot more than there are permits, so SHUTDOWN always fits
+        this.queue = new ArrayBlockingQueue<>(capacity + 1);
+        this.capacity = new Semaphore(capacity);
+        this.limit = capacity;
+        this.workers = workers;
+        this.ownsWorkers = ownsWorkers;
+        this.dispatcher = new Thread(this::dispatch, "command-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+    
+    public CompletableFuture<Void> submit(ICommand command) {
+        return enqueue(new Pending(command, false, null));
+    }
+    
+    // onExecuted runs on the worker right after the command, before the receiver's next command starts
+    public CompletableFuture<Void> submit(ICommand command, Consumer<ICommand> onExecuted) {
+        return enqueue(new Pending(command, false, onExecuted));
+    }
+    
+    public CompletableFuture<Void> submitUndo(ICommand command) {
+        return enqueue(new Pending(command, true, null));
+    }
+    
+    private CompletableFuture<Void> enqueue(Pending pending) {
+        if (closed) {
+            pending.done.completeExceptionally(new RejectedExecutionException("Command bus is closed"));
+            return pending.done;
+        }
+        try {
+            capacity.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.done.completeExceptionally(e);
+            return pending.done;
+        }
+        // Never blocks: a permit guarantees a free slot
+        queue.add(pending);
+        // close() may have run since the check above and the dispatcher may already be gone. Whoever
+        // removes the command from the queue owns it: if it is still there, fail it here.
+        if (closed && queue.remove(pending)) {
+            capacity.release();
+            pending.done.completeExceptionally(new RejectedExecutionException("Command bus is closed"));
+        }
+        return pending.done;
+    }
+    
+    private void dispatch() {
+        while (true) {
+            Pending pending;
+            try {
+                pending = queue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (pending == SHUTDOWN) {
+                break;
+            }
+            route(pending);
+            // At most limit lanes have anything outstanding, so past twice that at least half can go
+            if (lanes.size() > 2 * limit) {
+                lanes.values().removeIf(CompletableFuture::isDone);
+            }
+        }
+        // Commands added behind SHUTDOWN by submitters that passed the closed check before close()
+        for (Pending late; (late = queue.poll()) != null; ) {
+            route(late);
+        }
+        ArrayList<CompletableFuture<Void>> outstanding = new ArrayList<>(lanes.values());
+        outstanding.add(barrier);
+        CompletableFuture.allOf(outstanding.toArray(new CompletableFuture<?>[0]))
+                .exceptionally(e -> null)
+                .thenRun(() -> {
+                    if (ownsWorkers) {
+                        workers.shutdown();
+                    }
+                });
+    }
+    
+    private void route(Pending pending) {
+        Object receiver = pending.command.getReceiver();
+        CompletableFuture<?> after;
+        if (receiver == null) {
+            ArrayList<CompletableFuture<Void>> outstanding = new ArrayList<>();
+            outstanding.add(barrier);
+            for (CompletableFuture<Void> lane : lanes.values()) {
+                if (!lane.isDone()) {
+                    outstanding.add(lane);
+                }
+            }
+            after = CompletableFuture.allOf(outstanding.toArray(new CompletableFuture<?>[0]));
+            lanes.clear();
+            barrier = pending.done;
+        } else {
+            after = lanes.getOrDefault(receiver, barrier);
+            lanes.put(receiver, pending.done);
+        }
+        if (after.isDone()) {
+            start(pending);
+        } else {
+            // A failed predecessor must not stop the commands queued behind it
+            after.whenComplete((result, error) -> start(pending));
+        }
+    }
+    
+    private void start(Pending pending) {
+        try {
+            workers.execute(() -> run(pending));
+        } catch (RejectedExecutionException e) {
+            // A caller-owned executor may have been shut down under us; the command fails instead of
+            // leaving its future pending and its permit taken (which would block submit() for good)
+            capacity.release();
+            pending.done.completeExceptionally(e);
+        }
+    }
+    
+    private void run(Pending pending) {
+        try {
+            if (pending.undo) {
+                pending.command.undo();
+            } else {
+                pending.command.execute();
+            }
+            if (pending.onExecuted != null) {
+                pending.onExecuted.accept(pending.command);
+            }
+            pending.done.complete(null);
+        } catch (Throwable t) {
+            pending.done.completeExceptionally(t);
+        } finally {
+            capacity.release();
+        }
+    }
+    
+    // Commands submitted but not yet finished
+    public int getOutstanding() {
+        return limit - capacity.availablePermits();
+    }
+    
+    // Stops accepting commands; everything already submitted still runs
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            queue.add(SHUTDOWN);
+        }
+    }
 }
 
 // Invoker from the class diagram
+// Undo/redo history - a ring of preallocated slots, so the oldest entry is overwritten once it is full
+// and recording a command never allocates. Slot i holds the command to undo, the command to redo
+// (they differ only for a coalesced entry) and, for thermostat commands, the temperature to restore;
+// keeping that temperature here rather than relying on the command object means the same command
+// instance can sit in the history more than once.
+// Commands pressed through the bus are recorded by the worker right after they run, so the history is
+// guarded by the remote's lock. An undo pressed through the bus waits behind every command submitted
+// before it, so it always reverts the newest of them.
 class RemoteControl {
+    private static final int DEFAULT_HISTORY_DEPTH = 16;
+    
     private ICommand command;
+    private CommandBus bus;
+    // Allocated once, so pressing a button through the bus adds nothing beyond the bus's own bookkeeping
+    private final Consumer<ICommand> recorder = this::record;
+    private final ICommand undoOnBus = new UndoOnBus();
+    
+    private final ICommand[] undoCommands;
+    private final ICommand[] redoCommands;
+    private final int[] previousTemperatures;
+    private final boolean coalesceThermostatChanges;
+    private int head;       // slot the next executed command goes into
+    private int undoable;   // entries behind head
+    private int redoable;   // undone entries from head onwards
+    
+    public RemoteControl() {
+        this(DEFAULT_HISTORY_DEPTH, false);
+    }
+    
+    // With coalescing on, consecutive ThermostatSetCommands on the same thermostat form one undo entry:
+    // undo restores the temperature from before the first of them, redo re-applies the last
+    public RemoteControl(int historyDepth, boolean coalesceThermostatChanges) {
+        if (historyDepth < 1) {
+            throw new IllegalArgumentException("History depth must be at least 1");
+        }
+        this.undoCommands = new ICommand[historyDepth];
+        this.redoCommands = new ICommand[historyDepth];
+        this.previousTemperatures = new int[historyDepth];
+        this.coalesceThermostatChanges = coalesceThermostatChanges;
+    }
+    
+    // A remote that can also hand its commands to a bus instead of running them on the caller's thread
+    public RemoteControl(CommandBus bus) {
+        this();
+        this.bus = bus;
+    }
     
     // setCommand() method from the class diagram
     public void setCommand(ICommand command) {
@@ -143,10 +438,102 @@ class RemoteControl {
     
     public void buttonPressed() {
         command.execute();
+        record(command);
     }
     
-    public void undoButtonPressed() {
-        command.undo();
+    // Undoes the most recently executed command that has not been undone yet
+    public synchronized void undoButtonPressed() {
+        if (undoable == 0) {
+            System.out.println("Nothing to undo");
+            return;
+        }
+        int slot = (head - 1 + undoCommands.length) % undoCommands.length;
+        ICommand undo = undoCommands[slot];
+        if (undo instanceof ThermostatSetCommand) {
+            ((ThermostatSetCommand) undo).getThermostat().setTemperature(previousTemperatures[slot]);
+        } else {
+            undo.undo();
+        }
+        head = slot;
+        undoable--;
+        redoable++;
+    }
+    
+    public synchronized void redoButtonPressed() {
+        if (redoable == 0) {
+            System.out.println("Nothing to redo");
+            return;
+        }
+        redoCommands[head].execute();
+        head = (head + 1) % undoCommands.length;
+        undoable++;
+        redoable--;
+    }
+    
+    private synchronized void record(ICommand executed) {
+        // A new command ends the redo branch
+        for (int i = 0, slot = head; i < redoable; i++, slot = (slot + 1) % undoCommands.length) {
+            undoCommands[slot] = null;
+            redoCommands[slot] = null;
+        }
+        redoable = 0;
+        if (coalesceThermostatChanges && undoable > 0 && executed instanceof ThermostatSetCommand) {
+            int last = (head - 1 + undoCommands.length) % undoCommands.length;
+            if (redoCommands[last] instanceof ThermostatSetCommand
+                    && ((ThermostatSetCommand) redoCommands[last]).getThermostat()
+                            == ((ThermostatSetCommand) executed).getThermostat()) {
+                redoCommands[last] = executed;
+                return;
+            }
+        }
+        undoCommands[head] = executed;
+        redoCommands[head] = executed;
+        if (executed instanceof ThermostatSetCommand) {
+            previousTemperatures[head] = ((ThermostatSetCommand) executed).getPreviousTemperature();
+        }
+        head = (head + 1) % undoCommands.length;
+        if (undoable < undoCommands.length) {
+            undoable++;
+        }
+    }
+    
+    public synchronized int getUndoDepth() {
+        return undoable;
+    }
+    
+    public synchronized int getRedoDepth() {
+        return redoable;
+    }
+    
+    // Returns at once; the future completes when the command has run on the bus and been recorded
+    public CompletableFuture<Void> buttonPressedAsync() {
+        if (bus == null) {
+            buttonPressed();
+            return CompletableFuture.completedFuture(null);
+        }
+        return bus.submit(command, recorder);
+    }
+    
+    // The undo has no receiver, so the bus runs it only once every command submitted before it has run
+    // and been recorded, and holds back the ones submitted after it until it is done
+    public CompletableFuture<Void> undoButtonPressedAsync() {
+        if (bus == null) {
+            undoButtonPressed();
+            return CompletableFuture.completedFuture(null);
+        }
+        return bus.submit(undoOnBus);
+    }
+    
+    private final class UndoOnBus implements ICommand {
+        @Override
+        public void execute() {
+            undoButtonPressed();
+        }
+        
+        @Override
+        public void undo() {
+            redoButtonPressed();
+        }
     }
 }
 
@@ -194,5 +581,62 @@ public class Command {
         remote.setCommand(partyMode);
         remote.buttonPressed();
         remote.undoButtonPressed();
+        
+        // Multi-level undo/redo with thermostat changes coalesced into one entry
+        System.out.println("\n--- Testing undo/redo history ---");
+        RemoteControl historyRemote = new RemoteControl(8, true);
+        Thermostat bedroom = new Thermostat("Bedroom");
+        for (int temperature = 71; temperature <= 74; temperature++) {
+            historyRemote.setCommand(new ThermostatSetCommand(bedroom, temperature));
+            historyRemote.buttonPressed();
+        }
+        historyRemote.setCommand(livingRoomLightOn);
+        historyRemote.buttonPressed();
+        System.out.println("Undo entries: " + historyRemote.getUndoDepth());
+        historyRemote.undoButtonPressed();
+        historyRemote.undoButtonPressed();
+        historyRemote.undoButtonPressed();
+        historyRemote.redoButtonPressed();
+        historyRemote.redoButtonPressed();
+        
+        // Command bus - four thermostats that each take 100ms to respond
+        System.out.println("\n--- Testing command bus ---");
+        CommandBus bus = new CommandBus(64);
+        Thermostat[] rooms = new Thermostat[4];
+        for (int i = 0; i < rooms.length; i++) {
+            rooms[i] = new Thermostat("Room " + (i + 1)) {
+                @Override
+                public void setTemperature(int temperature) {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    super.setTemperature(temperature);
+                }
+            };
+        }
+        // One command per thermostat runs in parallel; three for the same thermostat run in order
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        RemoteControl busRemote = new RemoteControl(bus);
+        for (Thermostat room : rooms) {
+            busRemote.setCommand(new ThermostatSetCommand(room, 68));
+            pending.add(busRemote.buttonPressedAsync());
+        }
+        for (int temperature : new int[] {70, 72, 74}) {
+            busRemote.setCommand(new ThermostatSetCommand(rooms[0], temperature));
+            pending.add(busRemote.buttonPressedAsync());
+        }
+        System.out.println("Submitted " + pending.size() + " commands in "
+                + (System.nanoTime() - start) / 1_000_000 + "ms");
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+        System.out.println("All done after " + (System.nanoTime() - start) / 1_000_000 + "ms, Room 1 at "
+                + rooms[0].getTemperature() + " degrees");
+        // Bus commands are in the remote's history too; undo reverts the last one to take effect
+        busRemote.undoButtonPressedAsync().join();
+        System.out.println("After undo Room 1 at " + rooms[0].getTemperature() + " degrees, "
+                + busRemote.getUndoDepth() + " entries left to undo");
+        bus.close();
     }
 }
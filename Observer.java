@@ -1,17 +1,80 @@
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
 // this is a pull based observer pattern. this means that the observer is responsible for pulling the data from the subject.
 // if you used a push based observer pattern, the subject would push the data to the observer via the update method.
+// WeatherStation supports both: registerObserver() for pull observers, subscribe() for push MeasurementListeners.
 // Observer interface - now with no parameters for update
 interface ObserverInterface {
     void update();
 }
 
-// Subject interface remains the same
+// Subject interface - registerObserver now hands back a Subscription for cheap removal
 interface Subject {
-    void registerObserver(ObserverInterface o);
+    Subscription registerObserver(ObserverInterface o);
     void removeObserver(ObserverInterface o);
     void notifyObservers();
 }
 
+// Push-model observer - receives the measurements themselves instead of pulling them from the subject
+interface MeasurementListener {
+    void update(Measurements measurements);
+}
+
+// One immutable set of readings. The station publishes a new instance per change through a single
+// volatile write, so every reader sees temperature, humidity and pressure from the same update.
+class Measurements {
+    private final float temperature;
+    private final float humidity;
+    private final float pressure;
+    private final long timestampMillis;
+    
+    public Measurements(float temperature, float humidity, float pressure, long timestampMillis) {
+        this.temperature = temperature;
+        this.humidity = humidity;
+        this.pressure = pressure;
+        this.timestampMillis = timestampMillis;
+    }
+    
+    public float getTemperature() {
+        return temperature;
+    }
+    
+    public float getHumidity() {
+        return humidity;
+    }
+    
+    public float getPressure() {
+        return pressure;
+    }
+    
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+    
+    @Override
+    public String toString() {
+        return temperature + "F, " + humidity + "%, " + pressure + "inHg";
+    }
+}
+
 // DisplayElement interface remains the same
 interface DisplayElement {
     void display();
@@ -20,18 +83,30 @@ interface DisplayElement {
 // ConcreteSubject - implements the Subject interface and maintains the state.
 // Note: Getter methods are added for observers to pull data.
 class WeatherStation implements Subject {
-    private float temperature;
-    private float humidity;
-    private float pressure;
-    private java.util.ArrayList<ObserverInterface> observers;
+    private volatile Measurements current = new Measurements(0, 0, 0, 0);
+    private final ObserverRegistry observers;
+    // Conflation - off by default, so every change is one notification as before
+    private volatile boolean conflating;
+    private volatile long windowNanos;
+    private volatile ScheduledExecutorService scheduler;
+    private volatile long lastNotifyNanos;
+    private final AtomicBoolean trailingScheduled = new AtomicBoolean();
+    private final AtomicInteger pendingChanges = new AtomicInteger();
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong notifications = new AtomicLong();
     
     public WeatherStation() {
-        observers = new java.util.ArrayList<>();
+        observers = new ObserverRegistry();
     }
     
     @Override
-    public void registerObserver(ObserverInterface o) {
-        observers.add(o);
+    public Subscription registerObserver(ObserverInterface o) {
+        return observers.register(o);
+    }
+    
+    // Push-model registration - the listener is handed the snapshot the notification pass was started with
+    public Subscription subscribe(MeasurementListener listener) {
+        return observers.register(listener);
     }
     
     @Override
@@ -39,37 +114,262 @@ class WeatherStation implements Subject {
         observers.remove(o);
     }
     
+    // Registers an observer that is notified off the ingest thread through its own bounded queue,
+    // so a slow display cannot stall setMeasurements(); closing the returned wrapper unsubscribes it
+    public AsyncObserver registerObserver(ObserverInterface o, Executor executor,
+                                          int capacity, BackpressurePolicy policy) {
+        AsyncObserver async = new AsyncObserver(o, executor, capacity, policy);
+        async.attach(registerObserver(async));
+        return async;
+    }
+    
     @Override
     public void notifyObservers() {
-        for (ObserverInterface observer : observers) {
-            observer.update();
+        observers.notifyObservers(current);
+    }
+    
+    // Collapses bursts of changes into one notification carrying the latest measurements.
+    // Changes arriving while observers are still being notified always fold into a single follow-up pass;
+    // with a window > 0, at most one pass runs per window (the first change goes out immediately, the
+    // rest are flushed by the scheduler when the window closes).
+    public void enableConflation(long windowMillis, ScheduledExecutorService scheduler) {
+        if (windowMillis > 0 && scheduler == null) {
+            throw new IllegalArgumentException("A conflation window needs a scheduler");
         }
+        this.scheduler = scheduler;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.lastNotifyNanos = System.nanoTime() - windowNanos;
+        this.conflating = true;
+    }
+    
+    public void disableConflation() {
+        conflating = false;
     }
     
     // Method called when measurements change
     public void measurementsChanged() {
-        notifyObservers();
+        updates.incrementAndGet();
+        if (!conflating) {
+            notifications.incrementAndGet();
+            notifyObservers();
+            return;
+        }
+        long window = windowNanos;
+        if (window > 0) {
+            long wait = lastNotifyNanos + window - System.nanoTime();
+            if (wait > 0) {
+                if (trailingScheduled.compareAndSet(false, true)) {
+                    scheduler.schedule(this::flushConflated, wait, TimeUnit.NANOSECONDS);
+                }
+                return;
+            }
+        }
+        notifyCoalesced();
+    }
+    
+    private void flushConflated() {
+        trailingScheduled.set(false);
+        notifyCoalesced();
+    }
+    
+    // Only one thread notifies at a time; the others just record that another pass is needed.
+    // An observer's exception propagates to the notifying thread as in notifyObservers(); the changes that
+    // were waiting for a follow-up pass are then given up, and the next change starts a fresh pass.
+    private void notifyCoalesced() {
+        if (pendingChanges.getAndIncrement() > 0) {
+            return;
+        }
+        boolean completed = false;
+        try {
+            int seen;
+            do {
+                seen = pendingChanges.get();
+                lastNotifyNanos = System.nanoTime();
+                notifications.incrementAndGet();
+                notifyObservers();
+            } while (pendingChanges.addAndGet(-seen) > 0);
+            completed = true;
+        } finally {
+            if (!completed) {
+                pendingChanges.set(0);
+            }
+        }
+    }
+    
+    // Changes reported through setMeasurements()/measurementsChanged()
+    public long getUpdateCount() {
+        return updates.get();
+    }
+    
+    // Notification passes actually run over the observers
+    public long getNotificationCount() {
+        return notifications.get();
     }
     
     // Method to set measurements and trigger updates
     public void setMeasurements(float temperature, float humidity, float pressure) {
-        this.temperature = temperature;
-        this.humidity = humidity;
-        this.pressure = pressure;
+        current = new Measurements(temperature, humidity, pressure, System.currentTimeMillis());
         measurementsChanged();
     }
     
-    // Getter methods for observers to pull state data
+    public int observerCount() {
+        return observers.size();
+    }
+    
+    // Getter methods for observers to pull state data.
+    // Each getter reads the latest snapshot on its own, so two calls may straddle a concurrent update;
+    // pull getMeasurements() once when the values have to belong together.
+    public Measurements getMeasurements() {
+        return current;
+    }
+    
     public float getTemperature() {
-        return temperature;
+        return current.getTemperature();
     }
     
     public float getHumidity() {
-        return humidity;
+        return current.getHumidity();
     }
     
     public float getPressure() {
-        return pressure;
+        return current.getPressure();
+    }
+}
+
+// Handle returned by registerObserver - unsubscribe() is O(1) and safe to call from any thread, any number of times
+class Subscription implements AutoCloseable {
+    private final ObserverRegistry registry;
+    private final ObserverInterface observer;
+    private final MeasurementListener listener;
+    private final AtomicBoolean active = new AtomicBoolean(true);
+    
+    Subscription(ObserverRegistry registry, ObserverInterface observer, MeasurementListener listener) {
+        this.registry = registry;
+        this.observer = observer;
+        this.listener = listener;
+    }
+    
+    // The pull-model observer, or null for a push-model listener
+    public ObserverInterface getObserver() {
+        return observer;
+    }
+    
+    void deliver(Measurements measurements) {
+        if (listener != null) {
+            listener.update(measurements);
+        } else {
+            observer.update();
+        }
+    }
+    
+    public boolean isActive() {
+        return active.get();
+    }
+    
+    public void unsubscribe() {
+        if (active.compareAndSet(true, false)) {
+            registry.released();
+        }
+    }
+    
+    @Override
+    public void close() {
+        unsubscribe();
+    }
+}
+
+// Copy-on-write observer registry for read-mostly fan-out.
+// Notification walks an immutable array snapshot with no lock, so observers can come and go on other
+// threads mid-notify without a ConcurrentModificationException. Unsubscribing only flips a flag; the
+// dead entries are dropped the next time the array is copied anyway (a register), or once they make up
+// half of the array, which keeps removal amortized O(1).
+class ObserverRegistry {
+    private static final Subscription[] EMPTY = new Subscription[0];
+    
+    private final AtomicReference<Subscription[]> snapshot = new AtomicReference<>(EMPTY);
+    private final AtomicInteger dead = new AtomicInteger();
+    
+    public Subscription register(ObserverInterface observer) {
+        return add(new Subscription(this, observer, null));
+    }
+    
+    public Subscription register(MeasurementListener listener) {
+        return add(new Subscription(this, null, listener));
+    }
+    
+    private Subscription add(Subscription subscription) {
+        while (true) {
+            Subscription[] current = snapshot.get();
+            Subscription[] next = copyLive(current, 1);
+            int removed = current.length - (next.length - 1);
+            next[next.length - 1] = subscription;
+            if (snapshot.compareAndSet(current, next)) {
+                dead.addAndGet(-removed);
+                return subscription;
+            }
+        }
+    }
+    
+    // Legacy removal by observer - a linear scan, prefer Subscription.unsubscribe()
+    public boolean remove(ObserverInterface observer) {
+        for (Subscription subscription : snapshot.get()) {
+            if (subscription.getObserver() == observer && subscription.isActive()) {
+                subscription.unsubscribe();
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    void released() {
+        if (dead.incrementAndGet() * 2 > snapshot.get().length) {
+            compact();
+        }
+    }
+    
+    private void compact() {
+        while (true) {
+            Subscription[] current = snapshot.get();
+            Subscription[] next = copyLive(current, 0);
+            int removed = current.length - next.length;
+            if (removed == 0) {
+                return;
+            }
+            if (snapshot.compareAndSet(current, next)) {
+                dead.addAndGet(-removed);
+                return;
+            }
+        }
+    }
+    
+    // The active entries of current followed by extra empty slots
+    private static Subscription[] copyLive(Subscription[] current, int extra) {
+        Subscription[] next = new Subscription[current.length + extra];
+        int n = 0;
+        for (Subscription subscription : current) {
+            if (subscription.isActive()) {
+                next[n++] = subscription;
+            }
+        }
+        return n == current.length ? next : Arrays.copyOf(next, n + extra);
+    }
+    
+    public void notifyObservers(Measurements measurements) {
+        for (Subscription subscription : snapshot.get()) {
+            if (subscription.isActive()) {
+                subscription.deliver(measurements);
+            }
+        }
+    }
+    
+    public int size() {
+        int count = 0;
+        for (Subscription subscription : snapshot.get()) {
+            if (subscription.isActive()) {
+                count++;
+            }
+        }
+        return count;
     }
 }
 
@@ -108,23 +408,805 @@ class StatisticsDisplay implements ObserverInterface, DisplayElement {
     private float humidity;
     private float pressure;
     private WeatherStation weatherStation;
+    // Rolling 1m/5m/1h statistics - recording a reading is O(1) and allocates nothing
+    private final RollingStatistics temperatureStats = new RollingStatistics(-40, 130, 0.5);
+    private final RollingStatistics humidityStats = new RollingStatistics(0, 100, 0.5);
     
     // Constructor accepts the subject and registers this observer
     public StatisticsDisplay(WeatherStation weatherStation) {
         this.weatherStation = weatherStation;
         weatherStation.registerObserver(this);
     }
-
+    
     @Override
     public void update() {
-        this.temperature = weatherStation.getTemperature();
-        this.humidity = weatherStation.getHumidity();
+        // One snapshot, so temperature and humidity always come from the same update
+        Measurements measurements = weatherStation.getMeasurements();
+        this.temperature = measurements.getTemperature();
+        this.humidity = measurements.getHumidity();
+        long now = System.currentTimeMillis();
+        temperatureStats.record(temperature, now);
+        humidityStats.record(humidity, now);
         display();
     }
-
+    
     @Override
     public void display() {
-        System.out.println("Statistics: " + temperature + "F degrees and " + humidity + "% humidity");
+        long now = System.currentTimeMillis();
+        System.out.println("Statistics (last minute): temperature "
+                + temperatureStats.summary(RollingStatistics.ONE_MINUTE, now)
+                + ", humidity " + humidityStats.summary(RollingStatistics.ONE_MINUTE, now));
+    }
+    
+    public RollingStatistics getTemperatureStatistics() {
+        return temperatureStats;
+    }
+    
+    public RollingStatistics getHumidityStatistics() {
+        return humidityStats;
+    }
+}
+
+// Statistics for one metric over the last minute, five minutes and hour.
+// Single writer: record() is meant to be called from one observer's update(), which is never concurrent.
+class RollingStatistics {
+    public static final int ONE_MINUTE = 0;
+    public static final int FIVE_MINUTES = 1;
+    public static final int ONE_HOUR = 2;
+    
+    private final RollingWindow[] windows;
+    
+    // Percentiles are exact to within resolution for values in [lowest, highest]; outliers are clamped
+    public RollingStatistics(double lowest, double highest, double resolution) {
+        windows = new RollingWindow[] {
+            new RollingWindow(60_000, 60, lowest, highest, resolution),
+            new RollingWindow(300_000, 60, lowest, highest, resolution),
+            new RollingWindow(3_600_000, 60, lowest, highest, resolution)
+        };
+    }
+    
+    public void record(double value, long timestampMillis) {
+        for (RollingWindow window : windows) {
+            window.record(value, timestampMillis);
+        }
+    }
+    
+    public WindowSummary summary(int window, long nowMillis) {
+        return windows[window].summary(nowMillis);
+    }
+}
+
+// A sliding time window split into a fixed ring of slots, each covering windowMillis / slots.
+// Every slot keeps count, mean and M2 (Welford) plus min/max and a fixed-width histogram, all in
+// preallocated primitive arrays. A running histogram for the whole window is kept alongside, and a slot's
+// bins are subtracted from it when the slot is recycled, so a percentile never has to merge slots.
+// The window slides one slot at a time: it holds the current, partly filled slot plus the slots - 1 before it.
+class RollingWindow {
+    private final long slotMillis;
+    private final int slots;
+    private final double lowest;
+    private final double resolution;
+    private final int bins;
+    private final long[] slotIds;
+    private final long[] counts;
+    private final double[] means;
+    private final double[] m2s;
+    private final double[] mins;
+    private final double[] maxs;
+    private final int[] slotHistograms;
+    private final long[] windowHistogram;
+    
+    public RollingWindow(long windowMillis, int slots, double lowest, double highest, double resolution) {
+        this.slotMillis = windowMillis / slots;
+        this.slots = slots;
+        this.lowest = lowest;
+        this.resolution = resolution;
+        this.bins = (int) Math.ceil((highest - lowest) / resolution) + 1;
+        this.slotIds = new long[slots];
+        Arrays.fill(slotIds, Long.MIN_VALUE);
+        this.counts = new long[slots];
+        this.means = new double[slots];
+        this.m2s = new double[slots];
+        this.mins = new double[slots];
+        this.maxs = new double[slots];
+        this.slotHistograms = new int[slots * bins];
+        this.windowHistogram = new long[bins];
+    }
+    
+    public void record(double value, long timestampMillis) {
+        long slotId = Math.floorDiv(timestampMillis, slotMillis);
+        int slot = (int) Math.floorMod(slotId, (long) slots);
+        if (slotIds[slot] != slotId) {
+            if (slotIds[slot] > slotId) {
+                // Older than anything the ring still holds
+                return;
+            }
+            recycle(slot);
+            slotIds[slot] = slotId;
+            mins[slot] = value;
+            maxs[slot] = value;
+        }
+        long n = ++counts[slot];
+        double delta = value - means[slot];
+        means[slot] += delta / n;
+        m2s[slot] += delta * (value - means[slot]);
+        if (value < mins[slot]) {
+            mins[slot] = value;
+        }
+        if (value > maxs[slot]) {
+            maxs[slot] = value;
+        }
+        int bin = bin(value);
+        slotHistograms[slot * bins + bin]++;
+        windowHistogram[bin]++;
+    }
+    
+    private int bin(double value) {
+        int bin = (int) ((value - lowest) / resolution);
+        return bin < 0 ? 0 : Math.min(bin, bins - 1);
+    }
+    
+    private void recycle(int slot) {
+        if (counts[slot] > 0) {
+            int base = slot * bins;
+            for (int b = 0; b < bins; b++) {
+                windowHistogram[b] -= slotHistograms[base + b];
+                slotHistograms[base + b] = 0;
+            }
+        }
+        slotIds[slot] = Long.MIN_VALUE;
+        counts[slot] = 0;
+        means[slot] = 0;
+        m2s[slot] = 0;
+    }
+    
+    // Merges the live slots (Chan et al. for mean/variance) and walks the window histogram for percentiles
+    public WindowSummary summary(long nowMillis) {
+        long oldest = Math.floorDiv(nowMillis, slotMillis) - slots + 1;
+        long count = 0;
+        double mean = 0;
+        double m2 = 0;
+        double min = Double.NaN;
+        double max = Double.NaN;
+        for (int slot = 0; slot < slots; slot++) {
+            if (slotIds[slot] == Long.MIN_VALUE) {
+                continue;
+            }
+            if (slotIds[slot] < oldest) {
+                recycle(slot);
+                continue;
+            }
+            long n = counts[slot];
+            long total = count + n;
+            double delta = means[slot] - mean;
+            mean += delta * n / total;
+            m2 += m2s[slot] + delta * delta * ((double) count * n / total);
+            min = count == 0 ? mins[slot] : Math.min(min, mins[slot]);
+            max = count == 0 ? maxs[slot] : Math.max(max, maxs[slot]);
+            count = total;
+        }
+        if (count == 0) {
+            return new WindowSummary(0, Double.NaN, Double.NaN, Double.NaN, Double.NaN,
+                    Double.NaN, Double.NaN, Double.NaN);
+        }
+        return new WindowSummary(count, min, max, mean, count > 1 ? m2 / (count - 1) : 0,
+                percentile(0.50, count, min, max), percentile(0.95, count, min, max), percentile(0.99, count, min, max));
+    }
+    
+    private double percentile(double quantile, long count, double min, double max) {
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int b = 0; b < bins; b++) {
+            seen += windowHistogram[b];
+            if (seen >= rank) {
+                double midpoint = lowest + (b + 0.5) * resolution;
+                return Math.max(min, Math.min(max, midpoint));
+            }
+        }
+        return max;
+    }
+}
+
+// Result of a RollingWindow query
+class WindowSummary {
+    private final long count;
+    private final double min;
+    private final double max;
+    private final double mean;
+    private final double variance;
+    private final double p50;
+    private final double p95;
+    private final double p99;
+    
+    public WindowSummary(long count, double min, double max, double mean, double variance,
+                         double p50, double p95, double p99) {
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+        this.variance = variance;
+        this.p50 = p50;
+        this.p95 = p95;
+        this.p99 = p99;
+    }
+    
+    public long getCount() {
+        return count;
+    }
+    
+    public double getMin() {
+        return min;
+    }
+    
+    public double getMax() {
+        return max;
+    }
+    
+    public double getMean() {
+        return mean;
+    }
+    
+    public double getVariance() {
+        return variance;
+    }
+    
+    public double getStandardDeviation() {
+        return Math.sqrt(variance);
+    }
+    
+    public double getP50() {
+        return p50;
+    }
+    
+    public double getP95() {
+        return p95;
+    }
+    
+    public double getP99() {
+        return p99;
+    }
+    
+    @Override
+    public String toString() {
+        if (count == 0) {
+            return "n=0";
+        }
+        return String.format("n=%d min=%.1f max=%.1f avg=%.2f sd=%.2f p50=%.1f p95=%.1f p99=%.1f",
+                count, min, max, mean, getStandardDeviation(), p50, p95, p99);
+    }
+}
+
+// What an AsyncObserver does when its queue is full
+enum BackpressurePolicy {
+    BLOCK,          // the ingest thread waits for room - nothing is lost
+    DROP_OLDEST,    // the oldest pending notification is discarded to make room
+    CONFLATE        // at most one notification is ever pending; further ones fold into it
+}
+
+// Asynchronous dispatch - wraps an observer so that update() only enqueues a notification.
+// The queue is drained in batches by a task submitted to the executor; at most one drain task runs
+// at a time, so the wrapped observer still sees its updates one by one and in order.
+// In the pull model the wrapped observer reads the subject when it runs, so it always sees the latest
+// measurements; the policy decides how many update() calls it gets to make.
+class AsyncObserver implements ObserverInterface {
+    private final ObserverInterface observer;
+    private final Executor executor;
+    private final BackpressurePolicy policy;
+    private final ArrayBlockingQueue<Runnable> queue;
+    private final Runnable delivery;
+    private final Runnable drainTask = this::drain;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong conflated = new AtomicLong();
+    private volatile boolean closed;
+    private volatile Subscription subscription;
+    
+    public AsyncObserver(ObserverInterface observer, Executor executor, int capacity, BackpressurePolicy policy) {
+        this.observer = observer;
+        this.executor = executor;
+        this.policy = policy;
+        this.queue = new ArrayBlockingQueue<>(policy == BackpressurePolicy.CONFLATE ? 1 : capacity);
+        if (policy == BackpressurePolicy.CONFLATE) {
+            // Cleared before the update runs, so a change arriving mid-update schedules one more pass
+            this.delivery = () -> {
+                pending.set(false);
+                observer.update();
+            };
+        } else {
+            this.delivery = observer::update;
+        }
+    }
+    
+    // Virtual threads where the runtime has them, otherwise a pool of daemon threads
+    public static ExecutorService newDispatchExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "observer-dispatch");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+    
+    // Called on the ingest thread - never runs the wrapped observer
+    @Override
+    public void update() {
+        if (closed) {
+            return;
+        }
+        switch (policy) {
+            case BLOCK:
+                try {
+                    queue.put(delivery);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped.incrementAndGet();
+                    return;
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(delivery)) {
+                    if (queue.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                }
+                break;
+            case CONFLATE:
+                if (!pending.compareAndSet(false, true)) {
+                    conflated.incrementAndGet();
+                    return;
+                }
+                queue.offer(delivery);
+                break;
+        }
+        schedule();
+    }
+    
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(drainTask);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                queue.clear();
+                pending.set(false);
+            }
+        }
+    }
+    
+    // Runs everything queued so far as one batch, then hands the executor thread back.
+    // An exception from the observer ends the batch and propagates to the executor thread; the rest of the
+    // queue is picked up by a new drain task.
+    private void drain() {
+        try {
+            int batch = queue.size();
+            Runnable next;
+            while (batch-- > 0 && (next = queue.poll()) != null) {
+                next.run();
+                delivered.incrementAndGet();
+            }
+        } finally {
+            scheduled.set(false);
+            // A notification enqueued after the batch was sized must not be stranded
+            if (!queue.isEmpty()) {
+                schedule();
+            } else {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+    
+    // Waits until every notification accepted so far has been delivered
+    public synchronized boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!queue.isEmpty() || scheduled.get()) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(Math.min(remaining, 10));
+        }
+        return true;
+    }
+    
+    // Set when a WeatherStation registers the wrapper, so close() can unsubscribe it in O(1)
+    void attach(Subscription subscription) {
+        this.subscription = subscription;
+    }
+    
+    // Unsubscribes and stops accepting notifications; ones already queued are still delivered
+    public void close() {
+        closed = true;
+        Subscription registered = subscription;
+        if (registered != null) {
+            registered.unsubscribe();
+        }
+    }
+    
+    public int getQueueDepth() {
+        return queue.size();
+    }
+    
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+    
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+    
+    public long getConflatedCount() {
+        return conflated.get();
+    }
+    
+    @Override
+    public String toString() {
+        return "AsyncObserver[" + policy + ", delivered=" + delivered.get() + ", dropped=" + dropped.get()
+                + ", conflated=" + conflated.get() + "]";
+    }
+}
+
+// Push-model listener for the sharded engine - also told which station the snapshot belongs to
+interface StationListener {
+    void update(int stationId, Measurements measurements);
+}
+
+// Subscription predicate over raw readings, so readings nobody wants are rejected without allocating
+interface StationFilter {
+    boolean test(int stationId, float temperature, float humidity, float pressure);
+}
+
+// Handle returned by ShardedIngestEngine.subscribe()
+class StationSubscription implements AutoCloseable {
+    private final ShardedIngestEngine engine;
+    final int stationId;          // -1 for a predicate subscription
+    final StationFilter filter;   // null for a station subscription
+    final StationListener listener;
+    private final AtomicBoolean active = new AtomicBoolean(true);
+    
+    StationSubscription(ShardedIngestEngine engine, int stationId, StationFilter filter, StationListener listener) {
+        this.engine = engine;
+        this.stationId = stationId;
+        this.filter = filter;
+        this.listener = listener;
+    }
+    
+    public boolean isActive() {
+        return active.get();
+    }
+    
+    public void unsubscribe() {
+        if (active.compareAndSet(true, false)) {
+            engine.remove(this);
+        }
+    }
+    
+    @Override
+    public void close() {
+        unsubscribe();
+    }
+}
+
+// Hosts many weather stations without a WeatherStation object each.
+// Station s belongs to shard s % shards and lives at index s / shards in that shard's primitive arrays
+// (struct of arrays: one float[] per measurement rather than one object per station). Every shard is
+// owned by a single worker thread that drains a bounded multi-producer ring of primitive readings,
+// writes the station arrays and notifies subscribers, so shards never share mutable state and ingest
+// spreads across as many cores as there are shards.
+// Subscribers register per station or with a StationFilter; a Measurements snapshot is only allocated
+// for readings that somebody actually receives.
+class ShardedIngestEngine implements AutoCloseable {
+    private static final StationSubscription[] NONE = new StationSubscription[0];
+    
+    private final Shard[] shards;
+    private final int maxStations;
+    private final AtomicReference<StationSubscription[]> filtered = new AtomicReference<>(NONE);
+    private volatile boolean running = true;
+    
+    // ringCapacity is rounded up to a power of two
+    public ShardedIngestEngine(int maxStations, int shardCount, int ringCapacity) {
+        this.maxStations = maxStations;
+        this.shards = new Shard[shardCount];
+        int stationsPerShard = (maxStations + shardCount - 1) / shardCount;
+        int capacity = Integer.highestOneBit(Math.max(ringCapacity - 1, 1)) << 1;
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(this, i, stationsPerShard, capacity);
+        }
+        for (Shard shard : shards) {
+            shard.worker.start();
+        }
+    }
+    
+    // Thread-safe; blocks while the station's shard ring is full. Returns false once the engine is closed.
+    public boolean ingest(int stationId, float temperature, float humidity, float pressure) {
+        checkStation(stationId);
+        if (!running) {
+            return false;
+        }
+        return shards[stationId % shards.length].offer(stationId, temperature, humidity, pressure,
+                System.currentTimeMillis());
+    }
+    
+    // Latest readings of one station, consistent across fields, or null if it has not reported yet
+    public Measurements latest(int stationId) {
+        checkStation(stationId);
+        return shards[stationId % shards.length].read(stationId / shards.length);
+    }
+    
+    public long getUpdateCount(int stationId) {
+        checkStation(stationId);
+        return shards[stationId % shards.length].updateCount(stationId / shards.length);
+    }
+    
+    // Readings applied so far, across all shards
+    public long getProcessedCount() {
+        long total = 0;
+        for (Shard shard : shards) {
+            total += shard.processed;
+        }
+        return total;
+    }
+    
+    public StationSubscription subscribe(int stationId, StationListener listener) {
+        checkStation(stationId);
+        StationSubscription subscription = new StationSubscription(this, stationId, null, listener);
+        Shard shard = shards[stationId % shards.length];
+        int index = stationId / shards.length;
+        while (true) {
+            StationSubscription[] current = shard.subscribers.get(index);
+            StationSubscription[] next = Arrays.copyOf(current == null ? NONE : current,
+                    current == null ? 1 : current.length + 1);
+            next[next.length - 1] = subscription;
+            if (shard.subscribers.compareAndSet(index, current, next)) {
+                return subscription;
+            }
+        }
+    }
+    
+    public StationSubscription subscribe(StationFilter filter, StationListener listener) {
+        StationSubscription subscription = new StationSubscription(this, -1, filter, listener);
+        while (true) {
+            StationSubscription[] current = filtered.get();
+            StationSubscription[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = subscription;
+            if (filtered.compareAndSet(current, next)) {
+                return subscription;
+            }
+        }
+    }
+    
+    // Ids past maxStations would land in a shard slot that belongs to no station, or run off its arrays
+    private void checkStation(int stationId) {
+        if (stationId < 0 || stationId >= maxStations) {
+            throw new IllegalArgumentException("No such station: " + stationId);
+        }
+    }
+    
+    // Per-station arrays are short, so removal simply copies the survivors
+    void remove(StationSubscription subscription) {
+        if (subscription.stationId < 0) {
+            while (true) {
+                StationSubscription[] current = filtered.get();
+                if (filtered.compareAndSet(current, without(current, subscription))) {
+                    return;
+                }
+            }
+        }
+        Shard shard = shards[subscription.stationId % shards.length];
+        int index = subscription.stationId / shards.length;
+        while (true) {
+            StationSubscription[] current = shard.subscribers.get(index);
+            StationSubscription[] next = without(current, subscription);
+            if (shard.subscribers.compareAndSet(index, current, next.length == 0 ? null : next)) {
+                return;
+            }
+        }
+    }
+    
+    private static StationSubscription[] without(StationSubscription[] current, StationSubscription removed) {
+        StationSubscription[] next = new StationSubscription[current.length];
+        int n = 0;
+        for (StationSubscription subscription : current) {
+            if (subscription != removed) {
+                next[n++] = subscription;
+            }
+        }
+        return Arrays.copyOf(next, n);
+    }
+    
+    // Stops accepting readings, lets every worker drain what was already accepted, then waits for them.
+    // A reading whose ingest() call overlaps close() may be dropped.
+    @Override
+    public void close() {
+        running = false;
+        for (Shard shard : shards) {
+            LockSupport.unpark(shard.worker);
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    private static class Shard implements Runnable {
+        private final ShardedIngestEngine engine;
+        private final int shardCount;
+        final Thread worker;
+        
+        // Station state, written only by the worker
+        private final float[] temperatures;
+        private final float[] humidities;
+        private final float[] pressures;
+        private final long[] timestamps;
+        // Seqlock per station: odd while the worker is writing, so readers on other threads can retry
+        private final AtomicLongArray versions;
+        final AtomicReferenceArray<StationSubscription[]> subscribers;
+        volatile long processed;
+        
+        // Ingest ring: producers claim a sequence, fill the slot, then publish the sequence for that slot
+        private final int mask;
+        private final int[] ringStations;
+        private final float[] ringTemperatures;
+        private final float[] ringHumidities;
+        private final float[] ringPressures;
+        private final long[] ringTimestamps;
+        private final AtomicLongArray published;
+        private final AtomicLong claimed = new AtomicLong();
+        private volatile long consumed;
+        private volatile boolean sleeping;
+        
+        Shard(ShardedIngestEngine engine, int index, int stations, int capacity) {
+            this.engine = engine;
+            this.shardCount = engine.shards.length;
+            this.temperatures = new float[stations];
+            this.humidities = new float[stations];
+            this.pressures = new float[stations];
+            this.timestamps = new long[stations];
+            this.versions = new AtomicLongArray(stations);
+            this.subscribers = new AtomicReferenceArray<>(stations);
+            this.mask = capacity - 1;
+            this.ringStations = new int[capacity];
+            this.ringTemperatures = new float[capacity];
+            this.ringHumidities = new float[capacity];
+            this.ringPressures = new float[capacity];
+            this.ringTimestamps = new long[capacity];
+            this.published = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                published.set(i, -1);
+            }
+            this.worker = new Thread(this, "ingest-shard-" + index);
+            this.worker.setDaemon(true);
+        }
+        
+        boolean offer(int stationId, float temperature, float humidity, float pressure, long timestamp) {
+            long sequence = claimed.getAndIncrement();
+            for (int spins = 0; sequence - consumed > mask; spins++) {
+                // Ring full - wait for the worker rather than lose the reading, backing off so that
+                // waiting producers do not starve the worker of CPU
+                if (!engine.running && !worker.isAlive()) {
+                    return false;
+                }
+                if (spins < 100) {
+                    Thread.onSpinWait();
+                } else if (spins < 200) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(10_000);
+                }
+            }
+            int slot = (int) sequence & mask;
+            ringStations[slot] = stationId;
+            ringTemperatures[slot] = temperature;
+            ringHumidities[slot] = humidity;
+            ringPressures[slot] = pressure;
+            ringTimestamps[slot] = timestamp;
+            published.set(slot, sequence);
+            if (sleeping) {
+                LockSupport.unpark(worker);
+            }
+            return true;
+        }
+        
+        @Override
+        public void run() {
+            long next = 0;
+            int idle = 0;
+            while (true) {
+                int slot = (int) next & mask;
+                if (published.get(slot) == next) {
+                    apply(ringStations[slot], ringTemperatures[slot], ringHumidities[slot], ringPressures[slot],
+                            ringTimestamps[slot]);
+                    consumed = ++next;
+                    idle = 0;
+                } else if (!engine.running && claimed.get() == next) {
+                    return;
+                } else if (++idle < 100) {
+                    Thread.onSpinWait();
+                } else {
+                    sleeping = true;
+                    if (published.get(slot) != next && engine.running) {
+                        LockSupport.parkNanos(1_000_000);
+                    }
+                    sleeping = false;
+                }
+            }
+        }
+        
+        private void apply(int stationId, float temperature, float humidity, float pressure, long timestamp) {
+            int index = stationId / shardCount;
+            long version = versions.get(index);
+            versions.set(index, version + 1);
+            VarHandle.storeStoreFence();
+            temperatures[index] = temperature;
+            humidities[index] = humidity;
+            pressures[index] = pressure;
+            timestamps[index] = timestamp;
+            versions.set(index, version + 2);
+            processed++;
+            
+            Measurements snapshot = null;
+            StationSubscription[] direct = subscribers.get(index);
+            if (direct != null) {
+                snapshot = new Measurements(temperature, humidity, pressure, timestamp);
+                for (StationSubscription subscription : direct) {
+                    deliver(subscription, stationId, snapshot);
+                }
+            }
+            for (StationSubscription subscription : engine.filtered.get()) {
+                if (subscription.filter.test(stationId, temperature, humidity, pressure)) {
+                    if (snapshot == null) {
+                        snapshot = new Measurements(temperature, humidity, pressure, timestamp);
+                    }
+                    deliver(subscription, stationId, snapshot);
+                }
+            }
+        }
+        
+        private static void deliver(StationSubscription subscription, int stationId, Measurements snapshot) {
+            if (!subscription.isActive()) {
+                return;
+            }
+            try {
+                subscription.listener.update(stationId, snapshot);
+            } catch (RuntimeException e) {
+                // The worker serves every station in the shard, so rather than let one listener kill it the
+                // exception goes to the worker's uncaught-exception handler, and delivery carries on
+                Thread worker = Thread.currentThread();
+                worker.getUncaughtExceptionHandler().uncaughtException(worker, e);
+            }
+        }
+        
+        Measurements read(int index) {
+            while (true) {
+                long before = versions.get(index);
+                if ((before & 1) != 0) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                float temperature = temperatures[index];
+                float humidity = humidities[index];
+                float pressure = pressures[index];
+                long timestamp = timestamps[index];
+                VarHandle.loadLoadFence();
+                if (versions.get(index) == before) {
+                    return before == 0 ? null : new Measurements(temperature, humidity, pressure, timestamp);
+                }
+            }
+        }
+        
+        long updateCount(int index) {
+            return versions.get(index) / 2;
+        }
     }
 }
 
@@ -144,5 +1226,198 @@ public class Observer {
         
         System.out.println("\nWeather update 2:");
         weatherStation.setMeasurements(82, 70, 29.2f);
+        
+        // Rolling statistics - two simulated hours of readings every 100ms, then the three windows
+        System.out.println("\n=== Rolling Statistics ===");
+        RollingStatistics rolling = new RollingStatistics(-40, 130, 0.5);
+        Random noise = new Random(7);
+        long clock = 0;
+        long started = System.nanoTime();
+        for (int i = 0; i < 72_000; i++) {
+            clock += 100;
+            // Temperature climbs 20 degrees over the two hours, with some sensor noise
+            rolling.record(60 + 20.0 * i / 72_000 + noise.nextGaussian(), clock);
+        }
+        long elapsedMicros = (System.nanoTime() - started) / 1_000;
+        System.out.println("72000 readings recorded in " + elapsedMicros + "us");
+        System.out.println("Last minute:       " + rolling.summary(RollingStatistics.ONE_MINUTE, clock));
+        System.out.println("Last five minutes: " + rolling.summary(RollingStatistics.FIVE_MINUTES, clock));
+        System.out.println("Last hour:         " + rolling.summary(RollingStatistics.ONE_HOUR, clock));
+        
+        // Asynchronous dispatch - a display that takes 20ms per update no longer slows ingest down
+        System.out.println("\n=== Asynchronous Dispatch ===");
+        ExecutorService dispatcher = AsyncObserver.newDispatchExecutor();
+        for (BackpressurePolicy policy : BackpressurePolicy.values()) {
+            WeatherStation station = new WeatherStation();
+            ObserverInterface slowDisplay = () -> {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            };
+            AsyncObserver async = station.registerObserver(slowDisplay, dispatcher, 4, policy);
+            long start = System.nanoTime();
+            for (int i = 0; i < 50; i++) {
+                station.setMeasurements(70 + i % 10, 60, 30.0f);
+            }
+            long ingestMillis = (System.nanoTime() - start) / 1_000_000;
+            try {
+                async.awaitIdle(5_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            async.close();
+            System.out.println("50 updates ingested in " + ingestMillis + "ms -> " + async);
+        }
+        dispatcher.shutdown();
+        
+        // Conflation - a sensor reporting flat out for 300ms, observers notified at most every 50ms
+        System.out.println("\n=== Conflated Updates ===");
+        ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor();
+        WeatherStation sensor = new WeatherStation();
+        float[] lastSeen = new float[1];
+        sensor.registerObserver(() -> lastSeen[0] = sensor.getTemperature());
+        sensor.enableConflation(50, flusher);
+        long end = System.nanoTime() + 300_000_000L;
+        int reading = 0;
+        while (System.nanoTime() < end) {
+            sensor.setMeasurements(reading++ % 1000, 50, 30.0f);
+        }
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println(sensor.getUpdateCount() + " updates -> " + sensor.getNotificationCount()
+                + " notifications, last temperature seen " + lastSeen[0] + " (sent " + (reading - 1) % 1000 + ")");
+        flusher.shutdown();
+        
+        // No window - four sensor threads and a 1ms observer; changes made while it is busy fold together
+        WeatherStation busy = new WeatherStation();
+        busy.registerObserver(() -> {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        busy.enableConflation(0, null);
+        Thread[] sensors = new Thread[4];
+        for (int i = 0; i < sensors.length; i++) {
+            sensors[i] = new Thread(() -> {
+                for (int j = 0; j < 2_000; j++) {
+                    busy.setMeasurements(j, 50, 30.0f);
+                }
+            });
+            sensors[i].start();
+        }
+        for (Thread t : sensors) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        System.out.println(busy.getUpdateCount() + " updates -> " + busy.getNotificationCount() + " notifications");
+        
+        // Push model - a writer stores three equal values per update while a pull observer and a push
+        // listener check them; the pull getters can mix two updates, the pushed snapshot never does
+        System.out.println("\n=== Push-Model Snapshots ===");
+        WeatherStation feed = new WeatherStation();
+        AtomicLong pullTorn = new AtomicLong();
+        AtomicLong pushTorn = new AtomicLong();
+        AtomicBoolean feeding = new AtomicBoolean(true);
+        feed.subscribe(m -> {
+            if (m.getTemperature() != m.getHumidity() || m.getHumidity() != m.getPressure()) {
+                pushTorn.incrementAndGet();
+            }
+        });
+        Thread writer = new Thread(() -> {
+            for (int i = 0; feeding.get(); i++) {
+                feed.setMeasurements(i % 1000, i % 1000, i % 1000);
+            }
+        });
+        writer.start();
+        long pulls = 0;
+        for (long stop = System.nanoTime() + 200_000_000L; System.nanoTime() < stop; pulls++) {
+            float t = feed.getTemperature();
+            float h = feed.getHumidity();
+            float p = feed.getPressure();
+            if (t != h || h != p) {
+                pullTorn.incrementAndGet();
+            }
+        }
+        feeding.set(false);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("Pull getters: " + pullTorn.get() + " of " + pulls + " reads mixed two updates; push listener: "
+                + pushTorn.get() + " of " + feed.getNotificationCount() + " snapshots");
+        
+        // Subscription churn - observers come and go on one thread while another keeps notifying
+        System.out.println("\n=== Subscription Churn ===");
+        WeatherStation hub = new WeatherStation();
+        AtomicLong calls = new AtomicLong();
+        List<Subscription> subscriptions = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            subscriptions.add(hub.registerObserver(calls::incrementAndGet));
+        }
+        AtomicBoolean churning = new AtomicBoolean(true);
+        Thread notifier = new Thread(() -> {
+            while (churning.get()) {
+                hub.setMeasurements(75, 50, 30.0f);
+            }
+        });
+        notifier.start();
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            subscriptions.set(random.nextInt(subscriptions.size()), hub.registerObserver(calls::incrementAndGet))
+                    .unsubscribe();
+        }
+        churning.set(false);
+        try {
+            notifier.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("20000 subscribe/unsubscribe pairs during " + hub.getNotificationCount()
+                + " notifications (" + calls.get() + " observer calls), " + hub.observerCount() + " observers left");
+        
+        // Sharded engine - 10,000 stations in primitive arrays, one worker thread per shard
+        System.out.println("\n=== Sharded Ingest Engine ===");
+        int cores = Runtime.getRuntime().availableProcessors();
+        ShardedIngestEngine engine = new ShardedIngestEngine(10_000, cores, 8_192);
+        AtomicLong station42 = new AtomicLong();
+        AtomicLong heatAlerts = new AtomicLong();
+        engine.subscribe(42, (id, m) -> station42.incrementAndGet());
+        engine.subscribe((id, t, h, pr) -> t > 98.5f, (id, m) -> heatAlerts.incrementAndGet());
+        Thread[] producers = new Thread[cores];
+        long begin = System.nanoTime();
+        for (int i = 0; i < producers.length; i++) {
+            int first = i;
+            producers[i] = new Thread(() -> {
+                for (int j = 0; j < 2_000_000 / producers.length; j++) {
+                    int station = (first + j * producers.length) % 10_000;
+                    engine.ingest(station, j % 100, 50, 30.0f);
+                }
+            });
+            producers[i].start();
+        }
+        for (Thread producer : producers) {
+            try {
+                producer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        engine.close();
+        long millis = Math.max(1, (System.nanoTime() - begin) / 1_000_000);
+        System.out.println(engine.getProcessedCount() + " readings on " + cores + " shard(s) in " + millis + "ms ("
+                + engine.getProcessedCount() / millis + " per ms)");
+        System.out.println("Station 42: " + station42.get() + " updates, latest " + engine.latest(42)
+                + "; heat alerts: " + heatAlerts.get());
     }
 }
@@ -1,3 +1,45 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
 // Subject interface from the class diagram
 interface ImageViewer {
     // request() method from the class diagram
@@ -9,84 +51,350 @@ interface ImageViewer {
     }
 }
 
+// An image after it has been loaded into memory
+// The data is a read-only ByteBuffer. For images loaded from disk it is a memory-mapped view of the file, so
+// the bytes live in the OS page cache rather than on the Java heap, however large the image is.
+class DecodedImage {
+    private final String filename;
+    private final ByteBuffer pixels;
+    
+    public DecodedImage(String filename, byte[] pixels) {
+        this(filename, ByteBuffer.wrap(pixels));
+    }
+    
+    public DecodedImage(String filename, ByteBuffer pixels) {
+        this.filename = filename;
+        this.pixels = pixels.asReadOnlyBuffer();
+    }
+    
+    public String getFilename() {
+        return filename;
+    }
+    
+    // A zero-copy, read-only view with its own position, safe to hand to any number of readers
+    public ByteBuffer getPixels() {
+        return pixels.duplicate();
+    }
+    
+    public long sizeInBytes() {
+        return pixels.capacity();
+    }
+}
+
+// Process-wide cache of decoded images, shared by every RealImageViewer and therefore by every proxy.
+// Keyed by filename, bounded by the total number of decoded bytes, evicting the least recently used image.
+class ImageCache {
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    private static final ImageCache uniqueInstance = new ImageCache(DEFAULT_MAX_BYTES);
+    
+    // accessOrder = true keeps the least recently used image at the head
+    private final LinkedHashMap<String, DecodedImage> images = new LinkedHashMap<>(16, 0.75f, true);
+    // Loads currently running, so a second request for the same image waits for it instead of loading again
+    private final Map<String, CompletableFuture<DecodedImage>> loading = new HashMap<>();
+    private final long maxBytes;
+    private long currentBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long joins;
+    
+    public ImageCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+    
+    public static ImageCache getInstance() {
+        return uniqueInstance;
+    }
+    
+    // Returns the cached image, joins a load of it that is already in flight, or loads it with the loader.
+    // The (slow) load runs outside the lock so other images can still be served meanwhile.
+    public DecodedImage getOrLoad(String filename, Function<String, DecodedImage> loader) {
+        CompletableFuture<DecodedImage> pending;
+        CompletableFuture<DecodedImage> mine = null;
+        synchronized (this) {
+            DecodedImage image = images.get(filename);
+            if (image != null) {
+                hits++;
+                return image;
+            }
+            pending = loading.get(filename);
+            if (pending != null) {
+                joins++;
+            } else {
+                misses++;
+                mine = new CompletableFuture<>();
+                loading.put(filename, mine);
+            }
+        }
+        if (mine == null) {
+            try {
+                return pending.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            DecodedImage loaded = loader.apply(filename);
+            put(loaded);
+            mine.complete(loaded);
+            return loaded;
+        } catch (Throwable t) {
+            // Errors too: anything left uncompleted would strand every thread that joined this load
+            mine.completeExceptionally(t);
+            throw t;
+        } finally {
+            synchronized (this) {
+                loading.remove(filename);
+            }
+        }
+    }
+    
+    // Returns the cached image or null, without loading anything
+    public synchronized DecodedImage getIfPresent(String filename) {
+        DecodedImage image = images.get(filename);
+        if (image != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return image;
+    }
+    
+    // True if the image is cached or already being loaded, i.e. asking for it will not start a new load
+    public synchronized boolean isCachedOrLoading(String filename) {
+        return images.containsKey(filename) || loading.containsKey(filename);
+    }
+    
+    public synchronized void put(DecodedImage image) {
+        if (image.sizeInBytes() > maxBytes) {
+            // Bigger than the whole cache: hand it out but never keep it
+            return;
+        }
+        DecodedImage previous = images.put(image.getFilename(), image);
+        if (previous != null) {
+            currentBytes -= previous.sizeInBytes();
+        }
+        currentBytes += image.sizeInBytes();
+        Iterator<DecodedImage> eldest = images.values().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            currentBytes -= eldest.next().sizeInBytes();
+            eldest.remove();
+            evictions++;
+        }
+    }
+    
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+    
+    @Override
+    public synchronized String toString() {
+        return "ImageCache[images=" + images.size() + ", bytes=" + currentBytes + ", hits=" + hits
+                + ", misses=" + misses + ", joins=" + joins + ", evictions=" + evictions + "]";
+    }
+}
+
 // RealSubject from the class diagram
 class RealImageViewer implements ImageViewer {
-    private String filename;
+    // Simulated decoded size: a 512x512 RGBA image
+    private static final int DECODED_SIZE = 512 * 512 * 4;
+    
+    // The image currently shown. Volatile, and it carries its own filename, so concurrent displayImage calls
+    // always see a matching filename/image pair.
+    private volatile DecodedImage image;
     
     public RealImageViewer(String filename) {
-        this.filename = filename;
-        loadImageFromDisk();
+        this.image = ImageCache.getInstance().getOrLoad(filename, RealImageViewer::loadImageFromDisk);
     }
     
-    private void loadImageFromDisk() {
+    // Package-private so a prefetching proxy can warm the shared cache without creating a viewer
+    // Existing files are memory-mapped read-only: nothing is copied onto the heap and pages are read lazily
+    // by the OS. (A single mapping is limited to 2 GB.) The examples use made-up filenames, so a missing
+    // file falls back to the simulated slow load.
+    static DecodedImage loadImageFromDisk(String filename) {
         System.out.println("Loading image: " + filename);
+        Path path = Paths.get(filename);
+        if (Files.isRegularFile(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                // The mapping stays valid after the channel is closed
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return new DecodedImage(filename, mapped);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not load image " + filename, e);
+            }
+        }
         // Simulate heavy image loading
         try {
             Thread.sleep(1000);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
+        return new DecodedImage(filename, new byte[DECODED_SIZE]);
+    }
+    
+    // Zero-copy read-only view of the image currently shown
+    public ByteBuffer getImageData() {
+        return image.getPixels();
     }
     
     // request() implementation
     @Override
     public void displayImage(String filename) {
-        if (!this.filename.equals(filename)) {
-            this.filename = filename;
-            loadImageFromDisk();
+        if (!image.getFilename().equals(filename)) {
+            // Only goes to disk if no viewer in the process has this image cached
+            image = ImageCache.getInstance().getOrLoad(filename, RealImageViewer::loadImageFromDisk);
         }
         System.out.println("Displaying image: " + filename);
     }
 }
 
+// Thread-safe lazy holder for a proxy's real subject (double-checked locking)
+// Once the subject exists, get() is a single volatile read with no locking. Until then, the first caller
+// creates it while holding this holder's own lock - never a global one - and concurrent callers for the same
+// proxy wait for that one creation instead of each paying for a load.
+class LazyRealSubject {
+    private final Function<String, RealImageViewer> factory;
+    private volatile RealImageViewer instance;
+    
+    public LazyRealSubject(Function<String, RealImageViewer> factory) {
+        this.factory = factory;
+    }
+    
+    public RealImageViewer get(String filename) {
+        RealImageViewer viewer = instance;
+        if (viewer == null) {
+            synchronized (this) {
+                viewer = instance;
+                if (viewer == null) {
+                    viewer = factory.apply(filename);
+                    instance = viewer;
+                }
+            }
+        }
+        return viewer;
+    }
+}
+
+// Proof that a user's credentials were checked, valid until it expires (immutable)
+class AuthorizationToken {
+    private final String username;
+    private final long expiresAtNanos;
+    
+    public AuthorizationToken(String username, long ttlMillis) {
+        this.username = username;
+        this.expiresAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+    
+    public String getUsername() {
+        return username;
+    }
+    
+    public boolean isValid() {
+        return expiresAtNanos - System.nanoTime() > 0;
+    }
+}
+
 // Proxy from the class diagram - Protection Proxy example
+// Credentials are checked once, when they are set, and turned into an immutable AuthorizationToken. Each
+// displayImage then only reads that token (one volatile read) instead of re-comparing strings. Only digests
+// of the authorized credentials are kept, and they are compared in constant time so response timing does
+// not reveal how much of a guess was right.
 class ImageViewerProxy implements ImageViewer {
-    private RealImageViewer realImageViewer;
-    private String authorizedUser;
-    private String authorizedPassword;
-    private String currentUser;
-    private String currentPassword;
+    private static final long DEFAULT_SESSION_TTL_MILLIS = 15 * 60 * 1000;
+    
+    private final LazyRealSubject realImageViewer = new LazyRealSubject(RealImageViewer::new);
+    private final byte[] authorizedUserDigest;
+    private final byte[] authorizedPasswordDigest;
+    private final long sessionTtlMillis;
+    // Authorization for the credentials given to setCredentials(); null means not authorized
+    private volatile AuthorizationToken authorization;
+    
+    // A per-user session sharing this proxy's real subject. Many sessions can use one proxy concurrently.
+    class Session implements ImageViewer {
+        private volatile AuthorizationToken token;
+        
+        Session(AuthorizationToken token) {
+            this.token = token;
+        }
+        
+        @Override
+        public void setCredentials(String username, String password) {
+            token = authenticate(username, password);
+        }
+        
+        @Override
+        public void displayImage(String filename) {
+            show(token, filename);
+        }
+    }
     
     public ImageViewerProxy(String authorizedUser, String authorizedPassword) {
-        this.authorizedUser = authorizedUser;
-        this.authorizedPassword = authorizedPassword;
+        this(authorizedUser, authorizedPassword, DEFAULT_SESSION_TTL_MILLIS);
+    }
+    
+    public ImageViewerProxy(String authorizedUser, String authorizedPassword, long sessionTtlMillis) {
+        this.authorizedUserDigest = digest(authorizedUser);
+        this.authorizedPasswordDigest = digest(authorizedPassword);
+        this.sessionTtlMillis = sessionTtlMillis;
     }
     
     @Override
     public void setCredentials(String username, String password) {
-        this.currentUser = username;
-        this.currentPassword = password;
+        authorization = authenticate(username, password);
+    }
+    
+    // Opens a separate session; a session with wrong credentials is denied on every request
+    public Session login(String username, String password) {
+        return new Session(authenticate(username, password));
+    }
+    
+    private AuthorizationToken authenticate(String username, String password) {
+        if (username == null || password == null) {
+            return null;
+        }
+        // Non-short-circuit & so both comparisons always run
+        boolean valid = MessageDigest.isEqual(digest(username), authorizedUserDigest)
+                & MessageDigest.isEqual(digest(password), authorizedPasswordDigest);
+        return valid ? new AuthorizationToken(username, sessionTtlMillis) : null;
     }
     
-    private boolean isAuthorized() {
-        return currentUser != null && 
-               currentPassword != null && 
-               currentUser.equals(authorizedUser) && 
-               currentPassword.equals(authorizedPassword);
+    // Fixed-length SHA-256 digests, so not even the length of the secret leaks through the comparison
+    private static byte[] digest(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required by every Java platform", e);
+        }
     }
     
     // request() implementation
     @Override
     public void displayImage(String filename) {
-        if (!isAuthorized()) {
+        show(authorization, filename);
+    }
+    
+    private void show(AuthorizationToken token, String filename) {
+        if (token == null || !token.isValid()) {
             System.out.println("Access denied: Not authorized to view images");
             return;
         }
         
-        // Create the real subject only when needed
-        if (realImageViewer == null) {
-            realImageViewer = new RealImageViewer(filename);
-        }
-        
-        // Delegate to the real subject
-        realImageViewer.displayImage(filename);
+        // Create the real subject only when needed, exactly once even under concurrent requests,
+        // and delegate to it
+        realImageViewer.get(filename).displayImage(filename);
     }
 }
 
 // Another Proxy example - Virtual Proxy (lazy loading)
 @SuppressWarnings("all")
 class LazyImageLoaderProxy implements ImageViewer {
-    private RealImageViewer realImageViewer;
+    private final LazyRealSubject realImageViewer = new LazyRealSubject(filename -> {
+        System.out.println("Creating real image viewer on first use");
+        return new RealImageViewer(filename);
+    });
     private String filename;
     
     public LazyImageLoaderProxy(String filename) {
@@ -96,39 +404,461 @@ class LazyImageLoaderProxy implements ImageViewer {
     // request() implementation
     @Override
     public void displayImage(String filename) {
-        // Create the real subject only when needed
-        if (realImageViewer == null) {
-            System.out.println("Creating real image viewer on first use");
-            realImageViewer = new RealImageViewer(filename);
+        // Create the real subject only when needed (thread-safe, see LazyRealSubject)
+        // and delegate to it
+        realImageViewer.get(filename).displayImage(filename);
+    }
+}
+
+// Another Virtual Proxy - prefetches images it is told will probably be viewed next
+// Hints (e.g. the next few images of a gallery) are loaded into the shared ImageCache on a small bounded pool
+// of background threads. When displayImage is called for an image that is still loading, the call joins that
+// load instead of starting a new one, so sequential browsing rarely waits for the disk.
+class PrefetchingImageProxy implements ImageViewer {
+    private final ThreadPoolExecutor prefetcher;
+    private final LazyRealSubject realImageViewer = new LazyRealSubject(RealImageViewer::new);
+    
+    public PrefetchingImageProxy(int threads, int maxQueuedHints) {
+        // When the queue is full the oldest hint is dropped: the user has most likely browsed past it
+        this.prefetcher = new ThreadPoolExecutor(threads, threads,
+                30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(maxQueuedHints),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "image-prefetch");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.DiscardOldestPolicy());
+        this.prefetcher.allowCoreThreadTimeOut(true);
+    }
+    
+    // Hints that these images are likely to be displayed soon
+    public void prefetch(String... filenames) {
+        for (String filename : filenames) {
+            if (!ImageCache.getInstance().isCachedOrLoading(filename)) {
+                prefetcher.execute(() ->
+                        ImageCache.getInstance().getOrLoad(filename, RealImageViewer::loadImageFromDisk));
+            }
         }
-        
-        // Delegate to the real subject
-        realImageViewer.displayImage(filename);
+    }
+    
+    // request() implementation
+    @Override
+    public void displayImage(String filename) {
+        realImageViewer.get(filename).displayImage(filename);
+    }
+    
+    public void shutdown() {
+        prefetcher.shutdownNow();
     }
 }
 
-// Another Proxy example - Remote Proxy
-@SuppressWarnings("all")
-class RemoteImageProxy implements ImageViewer {
+// Another Proxy example - Rate-limiting / load-shedding proxy
+// Protects an expensive subject from overload. A request must pass three checks, cheapest first:
+//   1. a token bucket (rate per second with a burst allowance), lock-free via a CAS on the next allowed time
+//   2. a bounded wait queue: if too many requests are already waiting, reject immediately
+//   3. a pool of concurrency permits that must be obtained within the queue-time deadline
+// Rejected requests return at once instead of piling up threads behind the slow subject.
+class RateLimitingImageProxy implements ImageViewer {
+    private final ImageViewer subject;
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final AtomicLong nextFreeNanos;
+    private final Semaphore permits;
+    private final int maxQueued;
+    private final long maxQueueNanos;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    
+    public RateLimitingImageProxy(ImageViewer subject, double requestsPerSecond, int burst,
+                                  int maxConcurrent, int maxQueued, long maxQueueMillis) {
+        // Written so that NaN fails too; above a billion per second a token would take under a nanosecond
+        if (!(requestsPerSecond > 0 && requestsPerSecond <= 1_000_000_000L)) {
+            throw new IllegalArgumentException("Rate must be positive and at most one request per nanosecond");
+        }
+        if (burst < 1 || maxConcurrent < 1) {
+            throw new IllegalArgumentException("Burst and concurrency limit must be positive");
+        }
+        if (maxQueued < 0 || maxQueueMillis < 0) {
+            throw new IllegalArgumentException("Queue limits must not be negative");
+        }
+        this.subject = subject;
+        this.nanosPerToken = (long) (1_000_000_000L / requestsPerSecond);
+        if (burst > Long.MAX_VALUE / 2 / nanosPerToken) {
+            // The bucket is kept as nanoTime differences, which only compare correctly below 2^63
+            throw new IllegalArgumentException("Burst is too large for so low a rate");
+        }
+        this.burstNanos = nanosPerToken * (burst - 1);
+        this.nextFreeNanos = new AtomicLong(System.nanoTime());
+        this.permits = new Semaphore(maxConcurrent);
+        this.maxQueued = maxQueued;
+        this.maxQueueNanos = TimeUnit.MILLISECONDS.toNanos(maxQueueMillis);
+    }
+    
     // request() implementation
     @Override
     public void displayImage(String filename) {
+        if (!tryTakeToken()) {
+            rateLimited.incrementAndGet();
+            System.out.println("Rejected (rate limit): " + filename);
+            return;
+        }
+        if (!permits.tryAcquire()) {
+            if (!waitForPermit()) {
+                System.out.println("Rejected (overloaded): " + filename);
+                return;
+            }
+        }
+        try {
+            subject.displayImage(filename);
+        } finally {
+            permits.release();
+        }
+    }
+    
+    // Generic cell rate algorithm: one timestamp instead of a token count plus a refill clock
+    private boolean tryTakeToken() {
+        while (true) {
+            long now = System.nanoTime();
+            long next = nextFreeNanos.get();
+            long base = Math.max(next, now);
+            if (base - now > burstNanos) {
+                return false;
+            }
+            if (nextFreeNanos.compareAndSet(next, base + nanosPerToken)) {
+                return true;
+            }
+        }
+    }
+    
+    private boolean waitForPermit() {
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            shed.incrementAndGet();
+            return false;
+        }
+        try {
+            if (permits.tryAcquire(maxQueueNanos, TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+            timedOut.incrementAndGet();
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            timedOut.incrementAndGet();
+            return false;
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+    
+    // Requests currently waiting for a concurrency permit
+    public int getQueueDepth() {
+        return queued.get();
+    }
+    
+    public long getRateLimitedCount() {
+        return rateLimited.get();
+    }
+    
+    // Rejected because the wait queue was full
+    public long getShedCount() {
+        return shed.get();
+    }
+    
+    // Rejected because no permit became free within the queue-time deadline
+    public long getTimedOutCount() {
+        return timedOut.get();
+    }
+    
+    @Override
+    public String toString() {
+        return "RateLimitingImageProxy[queued=" + queued.get() + ", rateLimited=" + rateLimited.get()
+                + ", shed=" + shed.get() + ", timedOut=" + timedOut.get() + "]";
+    }
+}
+
+// In-process stand-in for the remote image server, listening on the loopback interface
+// Protocol, one round trip per batch:
+//   request:  int count, then count filenames (writeUTF)
+//   response: for each requested filename in order, int length (-1 if unknown) followed by the image bytes
+// Connections are persistent: a client may send any number of batches over the same socket.
+class ImageServer implements AutoCloseable {
+    private final ServerSocketChannel serverChannel;
+    private final int port;
+    private final ExecutorService workers;
+    private final Path imageDirectory; // null: serve simulated images
+    private final int imageSize;
+    private final AtomicLong roundTrips = new AtomicLong();
+    
+    private ImageServer(Path imageDirectory, int imageSize) throws IOException {
+        this.imageDirectory = imageDirectory;
+        this.imageSize = imageSize;
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        this.port = ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        this.workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "image-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.workers.execute(this::acceptConnections);
+    }
+    
+    // Starts a server on a free loopback port that serves simulated images of imageSize bytes
+    public static ImageServer start(int imageSize) {
+        return start(null, imageSize);
+    }
+    
+    // Starts a server on a free loopback port that serves the files in imageDirectory
+    public static ImageServer start(Path imageDirectory) {
+        return start(imageDirectory.toAbsolutePath().normalize(), 0);
+    }
+    
+    private static ImageServer start(Path imageDirectory, int imageSize) {
+        try {
+            return new ImageServer(imageDirectory, imageSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not start image server", e);
+        }
+    }
+    
+    public int getPort() {
+        return port;
+    }
+    
+    public long getRoundTrips() {
+        return roundTrips.get();
+    }
+    
+    private void acceptConnections() {
+        try {
+            while (true) {
+                SocketChannel socket = serverChannel.accept();
+                workers.execute(() -> serve(socket));
+            }
+        } catch (IOException e) {
+            // Server socket closed
+        }
+    }
+    
+    private void serve(SocketChannel socket) {
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(socket)));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(socket)))) {
+            while (true) {
+                int count;
+                try {
+                    count = in.readInt();
+                } catch (EOFException e) {
+                    return; // client closed the connection
+                }
+                String[] filenames = new String[count];
+                for (int i = 0; i < count; i++) {
+                    filenames[i] = in.readUTF();
+                }
+                roundTrips.incrementAndGet();
+                for (String filename : filenames) {
+                    writeImage(filename, out, socket);
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Connection dropped; the client will open a new one
+        }
+    }
+    
+    // Sends an image as its length followed by its bytes, or -1 if there is no such image
+    private void writeImage(String filename, DataOutputStream out, SocketChannel socket) throws IOException {
+        if (imageDirectory == null) {
+            // Simulated image storage: every .jpg exists, anything else does not
+            if (!filename.endsWith(".jpg")) {
+                out.writeInt(-1);
+                return;
+            }
+            byte[] image = new byte[imageSize];
+            Arrays.fill(image, (byte) filename.hashCode());
+            out.writeInt(image.length);
+            out.write(image);
+            return;
+        }
+        Path path = imageDirectory.resolve(filename).normalize();
+        if (!path.startsWith(imageDirectory) || !Files.isRegularFile(path)) {
+            out.writeInt(-1);
+            return;
+        }
+        // Served with FileChannel.transferTo, so the OS sends the file straight from the page cache
+        // (sendfile); it is never mapped or copied through the JVM
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            out.writeInt((int) size);
+            // The length goes out through the buffer, the image body straight from the file
+            out.flush();
+            for (long position = 0; position < size; ) {
+                position += channel.transferTo(position, size - position, socket);
+            }
+        }
+    }
+    
+    @Override
+    public void close() {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            // Nothing left to do
+        }
+        workers.shutdownNow();
+    }
+}
+
+// Client side of the image protocol with a pool of persistent connections
+// Opening a connection is the expensive part (simulated handshake), so connections are kept open and
+// reused, and a batch of filenames is fetched in a single round trip on one connection.
+class RemoteImageClient implements AutoCloseable {
+    private static class Connection {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+    }
+    
+    private final String host;
+    private final int port;
+    private final ArrayBlockingQueue<Connection> idle;
+    
+    public RemoteImageClient(String host, int port, int maxIdleConnections) {
+        this.host = host;
+        this.port = port;
+        this.idle = new ArrayBlockingQueue<>(maxIdleConnections);
+    }
+    
+    // Fetches all filenames in one round trip. Unknown images are missing from the result.
+    public Map<String, byte[]> fetch(List<String> filenames) {
+        Connection connection = borrow();
+        boolean reusable = false;
+        try {
+            connection.out.writeInt(filenames.size());
+            for (String filename : filenames) {
+                connection.out.writeUTF(filename);
+            }
+            connection.out.flush();
+            
+            Map<String, byte[]> images = new HashMap<>();
+            for (String filename : filenames) {
+                int length = connection.in.readInt();
+                if (length >= 0) {
+                    byte[] image = new byte[length];
+                    connection.in.readFully(image);
+                    images.put(filename, image);
+                }
+            }
+            reusable = true;
+            return images;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Fetching images from " + host + ":" + port + " failed", e);
+        } finally {
+            if (reusable) {
+                release(connection);
+            } else {
+                closeQuietly(connection);
+            }
+        }
+    }
+    
+    private Connection borrow() {
+        Connection connection = idle.poll();
+        if (connection != null) {
+            return connection;
+        }
         System.out.println("RemoteProxy: Connecting to remote server...");
-        // Simulate network delay
         try {
+            // Simulate the expensive part of connection setup (e.g. a TLS handshake)
             Thread.sleep(500);
+            return new Connection(new Socket(host, port));
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while connecting", e);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not connect to " + host + ":" + port, e);
+        }
+    }
+    
+    private void release(Connection connection) {
+        if (!idle.offer(connection)) {
+            closeQuietly(connection);
+        }
+    }
+    
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.socket.close();
+        } catch (IOException e) {
+            // Already broken
+        }
+    }
+    
+    @Override
+    public void close() {
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            closeQuietly(connection);
+        }
+    }
+}
+
+// Another Proxy example - Remote Proxy
+// Fetched image bytes are kept in the shared ImageCache, so an image crosses the network once.
+class RemoteImageProxy implements ImageViewer {
+    private final RemoteImageClient client;
+    
+    public RemoteImageProxy(RemoteImageClient client) {
+        this.client = client;
+    }
+    
+    // Fetches every listed image that is not cached locally yet, all in one round trip
+    public void prefetch(String... filenames) {
+        List<String> missing = new ArrayList<>();
+        for (String filename : filenames) {
+            if (!ImageCache.getInstance().isCachedOrLoading(filename)) {
+                missing.add(filename);
+            }
+        }
+        if (!missing.isEmpty()) {
+            System.out.println("RemoteProxy: Fetching " + missing.size() + " images in one round trip");
+            cache(client.fetch(missing));
+        }
+    }
+    
+    // request() implementation
+    @Override
+    public void displayImage(String filename) {
+        DecodedImage image = ImageCache.getInstance().getIfPresent(filename);
+        if (image == null) {
+            System.out.println("RemoteProxy: Fetching image " + filename + " from remote server");
+            // Use what was fetched, not a second cache lookup: an image too large for the cache is
+            // never stored there
+            byte[] fetched = client.fetch(List.of(filename)).get(filename);
+            if (fetched == null) {
+                System.out.println("RemoteProxy: Image " + filename + " not found on remote server");
+                return;
+            }
+            image = new DecodedImage(filename, fetched);
+            ImageCache.getInstance().put(image);
+        }
+        System.out.println("RemoteProxy: Displaying fetched image " + filename + " (" + image.sizeInBytes() + " bytes)");
+    }
+    
+    private static void cache(Map<String, byte[]> images) {
+        for (Map.Entry<String, byte[]> image : images.entrySet()) {
+            ImageCache.getInstance().put(new DecodedImage(image.getKey(), image.getValue()));
         }
-        
-        System.out.println("RemoteProxy: Fetching image " + filename + " from remote server");
-        // In a real implementation, this would connect to a remote service
-        
-        // Create a local representation of the remote object
-        RealImageViewer localRepresentation = new RealImageViewer(filename);
-        
-        // Use the local representation
-        System.out.println("RemoteProxy: Displaying fetched image locally");
     }
 }
 
@@ -147,6 +877,13 @@ public class Proxy {
         viewer.setCredentials("admin", "admin123");
         viewer.displayImage("vacation.jpg");
         
+        // Separate sessions through the same proxy, each with its own (cached) authorization
+        ImageViewerProxy sharedViewer = new ImageViewerProxy("admin", "admin123");
+        ImageViewer adminSession = sharedViewer.login("admin", "admin123");
+        ImageViewer guestSession = sharedViewer.login("guest", "guess");
+        adminSession.displayImage("vacation.jpg");
+        guestSession.displayImage("vacation.jpg");
+        
         System.out.println("\n=== Virtual Proxy Example ===");
         // Using a proxy to load a heavy resource only when needed
         ImageViewer lazyLoader = new LazyImageLoaderProxy("sunset.jpg");
@@ -162,7 +899,110 @@ public class Proxy {
         
         System.out.println("\n=== Remote Proxy Example ===");
         // Using a proxy to access a remote service
-        ImageViewer remoteViewer = new RemoteImageProxy();
-        remoteViewer.displayImage("remote-server/profile.jpg");
+        // The connection is opened once and reused; a batch of images costs a single round trip
+        try (ImageServer server = ImageServer.start(256 * 1024);
+             RemoteImageClient client = new RemoteImageClient("127.0.0.1", server.getPort(), 2)) {
+            RemoteImageProxy remoteViewer = new RemoteImageProxy(client);
+            remoteViewer.displayImage("remote-server/profile.jpg");
+            remoteViewer.prefetch("remote-server/cover.jpg", "remote-server/avatar.jpg", "remote-server/banner.jpg");
+            remoteViewer.displayImage("remote-server/avatar.jpg");
+            remoteViewer.displayImage("remote-server/profile.jpg");
+            System.out.println("Round trips to the server: " + server.getRoundTrips());
+        }
+        
+        System.out.println("\n=== Memory-Mapped Image Example ===");
+        // A real file on disk is mapped instead of copied onto the heap, and served to a socket with transferTo
+        try {
+            Path imageDirectory = Files.createTempDirectory("images");
+            Path photo = imageDirectory.resolve("panorama.jpg");
+            Files.write(photo, new byte[32 * 1024 * 1024]);
+            
+            RealImageViewer mappedViewer = new RealImageViewer(photo.toString());
+            mappedViewer.displayImage(photo.toString());
+            System.out.println("Mapped " + mappedViewer.getImageData().capacity() + " bytes, direct (off-heap): "
+                    + mappedViewer.getImageData().isDirect());
+            
+            try (ImageServer fileServer = ImageServer.start(imageDirectory);
+                 RemoteImageClient fileClient = new RemoteImageClient("127.0.0.1", fileServer.getPort(), 1)) {
+                byte[] received = fileClient.fetch(List.of("panorama.jpg")).get("panorama.jpg");
+                System.out.println("Served " + received.length + " bytes over the socket with transferTo");
+            }
+            Files.delete(photo);
+            Files.delete(imageDirectory);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        
+        System.out.println("\n=== Shared Image Cache Example ===");
+        // Both proxies and all their real viewers share one process-wide cache of decoded images,
+        // so switching back and forth between images or between users does not reload anything
+        ImageViewer adminViewer = new ImageViewerProxy("admin", "admin123");
+        adminViewer.setCredentials("admin", "admin123");
+        adminViewer.displayImage("sunset.jpg");
+        adminViewer.displayImage("vacation.jpg");
+        adminViewer.displayImage("sunset.jpg");
+        
+        ImageViewer otherUsersViewer = new LazyImageLoaderProxy("vacation.jpg");
+        otherUsersViewer.displayImage("vacation.jpg");
+        System.out.println(ImageCache.getInstance());
+        
+        System.out.println("\n=== Prefetching Proxy Example ===");
+        // While the first image of the gallery is shown, the next ones load in the background
+        PrefetchingImageProxy gallery = new PrefetchingImageProxy(2, 16);
+        String[] album = {"beach-1.jpg", "beach-2.jpg", "beach-3.jpg"};
+        gallery.prefetch(album[1], album[2]);
+        for (String photo : album) {
+            long start = System.nanoTime();
+            gallery.displayImage(photo);
+            System.out.println("(waited " + (System.nanoTime() - start) / 1_000_000 + " ms)");
+            try {
+                Thread.sleep(300); // the user looks at the photo for a moment
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        gallery.shutdown();
+        
+        System.out.println("\n=== Rate-Limiting Proxy Example ===");
+        // A burst of 8 simultaneous requests against a slow subject allowed 2 at a time: a few are served,
+        // a few wait briefly, and the rest are rejected straight away
+        ImageViewer slowViewer = filename -> {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            System.out.println("Displaying image: " + filename);
+        };
+        RateLimitingImageProxy limited = new RateLimitingImageProxy(slowViewer, 20, 6, 2, 2, 500);
+        Thread[] burst = new Thread[8];
+        for (int i = 0; i < burst.length; i++) {
+            burst[i] = new Thread(() -> limited.displayImage("sunset.jpg"));
+            burst[i].start();
+        }
+        for (Thread request : burst) {
+            try {
+                request.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        System.out.println(limited);
+        
+        System.out.println("\n=== Concurrent Virtual Proxy Example ===");
+        // Several threads hit a fresh proxy at once: the image is loaded and the viewer created exactly once
+        ImageViewer shared = new LazyImageLoaderProxy("mountains.jpg");
+        Thread[] requests = new Thread[4];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new Thread(() -> shared.displayImage("mountains.jpg"));
+            requests[i].start();
+        }
+        for (Thread request : requests) {
+            try {
+                request.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+package examples;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// JMH benchmarks for the WebServiceClient decorators in DecoratorExample, one layer at a time and as the full
+// stack. Every scenario runs in its own forked JVM, so the call sites are profiled with only that scenario's
+// receiver types and one configuration cannot skew the JIT's decisions for the next.
+//
+// Build and run:  mvn -P jmh package && java -jar target/benchmarks.jar -prof gc
+// (or run main() below, which adds the GC profiler itself). gc.alloc.rate.norm is the allocation per call.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class DecoratorBenchmark {
+    @Param({"bare", "logging", "authentication", "compression", "caching-hit", "caching-miss",
+            "stack-hit", "stack-miss"})
+    public String scenario;
+    
+    private WebServiceClient client;
+    private String[] urls;
+    private int next;
+    private PrintStream console;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        // The decorators print on every call; the output is discarded so we measure the work, not the terminal.
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        
+        // One hot URL is always a cache hit; 100,000 distinct URLs cycling through a 1,024 entry cache always miss.
+        String[] hotUrl = {"http://example.com/data"};
+        String[] coldUrls = new String[100_000];
+        for (int i = 0; i < coldUrls.length; i++) {
+            coldUrls[i] = "http://example.com/data/" + i;
+        }
+        switch (scenario) {
+            case "bare":
+                client = new BasicWebServiceClient();
+                urls = hotUrl;
+                break;
+            case "logging":
+                client = new LoggingDecorator(new BasicWebServiceClient());
+                urls = hotUrl;
+                break;
+            case "authentication":
+                client = new AuthenticationDecorator(new BasicWebServiceClient(), "my-secret-token");
+                urls = hotUrl;
+                break;
+            case "compression":
+                client = new CompressionDecorator(new BasicWebServiceClient());
+                urls = hotUrl;
+                break;
+            case "caching-hit":
+                client = smallCache(new BasicWebServiceClient());
+                urls = hotUrl;
+                break;
+            case "caching-miss":
+                client = smallCache(new BasicWebServiceClient());
+                urls = coldUrls;
+                break;
+            case "stack-hit":
+                client = smallCache(stack());
+                urls = hotUrl;
+                break;
+            case "stack-miss":
+                client = smallCache(stack());
+                urls = coldUrls;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown scenario: " + scenario);
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(console);
+    }
+    
+    // Returning the response hands it to JMH's blackhole, so the call cannot be optimized away.
+    @Benchmark
+    public String get() {
+        String url = urls[next];
+        if (++next == urls.length) {
+            next = 0;
+        }
+        return client.get(url);
+    }
+    
+    // The decorator stack from DecoratorExample, below the cache.
+    private static WebServiceClient stack() {
+        WebServiceClient client = new BasicWebServiceClient();
+        client = new LoggingDecorator(client);
+        client = new AuthenticationDecorator(client, "my-secret-token");
+        client = new CompressionDecorator(client);
+        return client;
+    }
+    
+    private static WebServiceClient smallCache(WebServiceClient client) {
+        return new CachingDecorator(client, new ResponseCache(1024, 16L * 1024 * 1024, 60_000, 0));
+    }
+    
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include("examples\\.Decorator(Depth)?Benchmark")
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,82 @@
+package examples;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The cost of the decorator chain itself: depth cheap layers in front of the bare client. The layers cycle
+// through four decorator classes, so every call site in the chain sees several receiver types like a real
+// stack does. Depth 0 is the bare client, the baseline the other depths are measured against. Each depth
+// runs in its own fork. Run it through the DecoratorBenchmark instructions.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class DecoratorDepthBenchmark {
+    // A decorator that only counts its calls.
+    static class CountingDecorator extends WebServiceClientDecorator {
+        long calls;
+        
+        CountingDecorator(WebServiceClient client) {
+            super(client);
+        }
+        
+        @Override
+        public String get(String url) {
+            calls++;
+            return client.get(url);
+        }
+    }
+    
+    // Same behaviour under different class names.
+    static class CountingDecoratorB extends CountingDecorator {
+        CountingDecoratorB(WebServiceClient client) {
+            super(client);
+        }
+    }
+    
+    static class CountingDecoratorC extends CountingDecorator {
+        CountingDecoratorC(WebServiceClient client) {
+            super(client);
+        }
+    }
+    
+    static class CountingDecoratorD extends CountingDecorator {
+        CountingDecoratorD(WebServiceClient client) {
+            super(client);
+        }
+    }
+    
+    @Param({"0", "1", "4", "16", "32"})
+    public int depth;
+    
+    private WebServiceClient client;
+    
+    @Setup
+    public void setUp() {
+        List<Function<WebServiceClient, WebServiceClient>> layers = List.of(
+                CountingDecorator::new, CountingDecoratorB::new, CountingDecoratorC::new, CountingDecoratorD::new);
+        client = new BasicWebServiceClient();
+        for (int i = 0; i < depth; i++) {
+            client = layers.get(i % layers.size()).apply(client);
+        }
+    }
+    
+    @Benchmark
+    public String get() {
+        return client.get("http://example.com/data");
+    }
+}
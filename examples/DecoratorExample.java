@@ -1,11 +1,90 @@
 package examples;
 
-import java.util.HashMap;
-import java.util.Map;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 // Define the client interface
 abstract class WebServiceClient {
     abstract String get(String url);
+    
+    // Asynchronous variant of get(). The default simply runs the blocking call on the caller's thread;
+    // clients that can do non-blocking I/O override it so no thread is held while a request is in flight.
+    CompletableFuture<String> getAsync(String url) {
+        try {
+            return CompletableFuture.completedFuture(get(url));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+    
+    // Waits for an asynchronous result and rethrows its failure unwrapped, as a blocking get() would.
+    static String join(CompletableFuture<String> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw unchecked(e);
+        }
+    }
+    
+    // Turns the failure of a future into the unchecked exception a blocking get() would have thrown.
+    static RuntimeException unchecked(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause()
+                : failure;
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof IOException) {
+            return new UncheckedIOException((IOException) cause);
+        }
+        return new CompletionException(cause);
+    }
 }
 
 // The core implementation of the web service client
@@ -17,6 +96,92 @@ class BasicWebServiceClient extends WebServiceClient {
     }
 }
 
+// A client that performs real HTTP GET requests. getAsync() uses the JDK HttpClient's non-blocking
+// sendAsync(), so thousands of requests can be in flight without a thread per request.
+class HttpWebServiceClient extends WebServiceClient {
+    private final HttpClient httpClient;
+    
+    public HttpWebServiceClient() {
+        this(HttpClient.newHttpClient());
+    }
+    
+    public HttpWebServiceClient(HttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+    
+    @Override
+    public String get(String url) {
+        return join(getAsync(url));
+    }
+    
+    @Override
+    public CompletableFuture<String> getAsync(String url) {
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(url)).GET().build();
+        } catch (IllegalArgumentException e) {
+            // A malformed URL fails the future like any other request failure
+            return CompletableFuture.failedFuture(e);
+        }
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenApply(response -> {
+                    if (response.statusCode() >= 400) {
+                        throw new IllegalStateException("HTTP " + response.statusCode() + " from " + url);
+                    }
+                    return response.body();
+                });
+    }
+}
+
+// A local stub server on the loopback interface that stands in for the remote web service.
+// It answers every GET with "Response from <url>" after a fixed simulated latency.
+class StubWebServer implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    
+    private StubWebServer(HttpServer server, ExecutorService handlers) {
+        this.server = server;
+        this.handlers = handlers;
+    }
+    
+    public static StubWebServer start(long latencyMillis) {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            ExecutorService handlers = Executors.newCachedThreadPool();
+            server.setExecutor(handlers);
+            server.createContext("/", exchange -> {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                String url = "http://" + exchange.getRequestHeaders().getFirst("Host") + exchange.getRequestURI();
+                byte[] body = ("Response from " + url).getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+            return new StubWebServer(server, handlers);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not start stub server", e);
+        }
+    }
+    
+    // Base URL of the server, e.g. http://127.0.0.1:54321
+    public String baseUrl() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort();
+    }
+    
+    @Override
+    public void close() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+}
+
 // The abstract decorator that implements WebServiceClient and holds a reference to a wrapped client.
 abstract class WebServiceClientDecorator extends WebServiceClient {
     protected WebServiceClient client;
@@ -29,6 +194,11 @@ abstract class WebServiceClientDecorator extends WebServiceClient {
     public String get(String url) {
         return client.get(url);
     }
+    
+    @Override
+    public CompletableFuture<String> getAsync(String url) {
+        return client.getAsync(url);
+    }
 }
 
 // A decorator for logging requests and responses.
@@ -45,61 +215,1582 @@ class LoggingDecorator extends WebServiceClientDecorator {
         System.out.println("[Logging] Received response: " + response);
         return response;
     }
+    
+    @Override
+    public CompletableFuture<String> getAsync(String url) {
+        System.out.println("[Logging] Sending GET request to: " + url);
+        CompletableFuture<String> response;
+        try {
+            response = client.getAsync(url);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return response.thenApply(body -> {
+            System.out.println("[Logging] Received response: " + body);
+            return body;
+        });
+    }
+}
+
+// A preallocated ring buffer of structured log events, drained in batches by a background thread.
+// Producers only claim a slot with a CAS and store primitives and references into parallel arrays, so
+// recording an event allocates nothing and never touches the (synchronized) output stream. Formatting
+// and writing happen on the drainer thread, one write and flush per batch.
+class LogEventRing implements AutoCloseable {
+    // What a producer does when the ring is full (or, for SAMPLE, filling up).
+    enum OverflowPolicy {
+        DROP,   // discard the new event
+        BLOCK,  // wait until the drainer frees a slot
+        SAMPLE  // above the high-water mark keep only every sampleRate-th event, drop when full
+    }
+    
+    static final byte REQUEST = 0;
+    static final byte RESPONSE = 1;
+    
+    private final int mask;
+    private final long[] timestamps;
+    private final long[] threadIds;
+    private final byte[] kinds;
+    private final String[] urls;
+    private final String[] payloads;
+    // published[i] holds the sequence number last written into slot i; the drainer waits for it.
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long drained;
+    
+    private final OverflowPolicy policy;
+    private final int sampleRate;
+    private final long highWaterMark;
+    private final AtomicLong sampleCounter = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    
+    private final Writer sink;
+    private final int batchSize;
+    private final StringBuilder batch = new StringBuilder(4096);
+    private final Thread drainer;
+    private volatile boolean running = true;
+    
+    // capacity is rounded up to a power of two so a slot index is a mask instead of a modulo.
+    public LogEventRing(int capacity, int batchSize, OverflowPolicy policy, int sampleRate, Writer sink) {
+        if (capacity <= 0 || batchSize <= 0 || sampleRate <= 0) {
+            throw new IllegalArgumentException("Capacity, batch size and sample rate must be positive");
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        size = Math.max(size, 2);
+        this.mask = size - 1;
+        this.timestamps = new long[size];
+        this.threadIds = new long[size];
+        this.kinds = new byte[size];
+        this.urls = new String[size];
+        this.payloads = new String[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        this.policy = policy;
+        this.sampleRate = sampleRate;
+        this.highWaterMark = size - size / 4;
+        this.batchSize = batchSize;
+        this.sink = sink;
+        this.drainer = new Thread(this::drainLoop, "log-ring-drainer");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+    
+    // Convenience: write to standard output.
+    public static LogEventRing toStdout(int capacity, OverflowPolicy policy) {
+        return new LogEventRing(capacity, 256, policy, 8, new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+    }
+    
+    // Records one event. Returns false if the event was dropped or sampled out.
+    public boolean record(byte kind, String url, String payload) {
+        long sequence = claim();
+        if (sequence < 0) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        int index = (int) (sequence & mask);
+        timestamps[index] = System.currentTimeMillis();
+        threadIds[index] = Thread.currentThread().getId();
+        kinds[index] = kind;
+        urls[index] = url;
+        payloads[index] = payload;
+        // Ordered store: the fields above become visible to the drainer before the slot is marked published.
+        published.lazySet(index, sequence);
+        return true;
+    }
+    
+    private long claim() {
+        while (running) {
+            long sequence = claimed.get();
+            long used = sequence - drained;
+            if (used >= mask + 1) {
+                if (policy != OverflowPolicy.BLOCK) {
+                    return -1;
+                }
+                LockSupport.parkNanos(10_000);
+                continue;
+            }
+            if (policy == OverflowPolicy.SAMPLE && used >= highWaterMark
+                    && sampleCounter.getAndIncrement() % sampleRate != 0) {
+                return -1;
+            }
+            if (claimed.compareAndSet(sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+        return -1;
+    }
+    
+    private void drainLoop() {
+        while (running || drained < claimed.get()) {
+            int count = drainBatch();
+            if (count == 0) {
+                LockSupport.parkNanos(100_000);
+            }
+        }
+    }
+    
+    // Formats up to batchSize published events and writes them with a single write() and flush().
+    private int drainBatch() {
+        long next = drained;
+        int count = 0;
+        batch.setLength(0);
+        while (count < batchSize) {
+            int index = (int) (next & mask);
+            if (published.get(index) != next) {
+                break;
+            }
+            format(index);
+            urls[index] = null;
+            payloads[index] = null;
+            next++;
+            count++;
+        }
+        if (count > 0) {
+            drained = next;
+            try {
+                sink.append(batch);
+                sink.flush();
+            } catch (IOException e) {
+                // Logging must never fail the request path; count the lost batch and keep draining.
+                dropped.addAndGet(count);
+            }
+        }
+        return count;
+    }
+    
+    private void format(int index) {
+        batch.append(timestamps[index]).append(" [thread-").append(threadIds[index]).append("] ");
+        if (kinds[index] == REQUEST) {
+            batch.append("[Logging] Sending GET request to: ").append(urls[index]);
+        } else {
+            batch.append("[Logging] Received response from ").append(urls[index]).append(": ").append(payloads[index]);
+        }
+        batch.append('\n');
+    }
+    
+    public long getDropped() {
+        return dropped.get();
+    }
+    
+    // Events recorded but not yet written by the drainer.
+    public long getQueueDepth() {
+        return claimed.get() - drained;
+    }
+    
+    // Stops accepting events, writes everything already recorded and waits for the drainer to finish.
+    @Override
+    public void close() {
+        running = false;
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+// A logging decorator that records structured events into a LogEventRing instead of printing on the
+// caller's thread. The request path only pays for a slot claim; formatting and I/O happen in the background.
+class AsyncLoggingDecorator extends WebServiceClientDecorator {
+    private final LogEventRing ring;
+    
+    public AsyncLoggingDecorator(WebServiceClient client, LogEventRing ring) {
+        super(client);
+        this.ring = ring;
+    }
+    
+    @Override
+    public String get(String url) {
+        ring.record(LogEventRing.REQUEST, url, null);
+        String response = client.get(url);
+        ring.record(LogEventRing.RESPONSE, url, response);
+        return response;
+    }
+    
+    @Override
+    public CompletableFuture<String> getAsync(String url) {
+        ring.record(LogEventRing.REQUEST, url, null);
+        return client.getAsync(url).thenApply(response -> {
+            ring.record(LogEventRing.RESPONSE, url, response);
+            return response;
+        });
+    }
+}
+
+// An access token together with the moment it stops being valid.
+class AccessToken {
+    private final String value;
+    private final long expiresAtNanos;
+    
+    public AccessToken(String value, long ttlMillis) {
+        this.value = value;
+        this.expiresAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+    
+    public String value() {
+        return value;
+    }
+    
+    public long remainingNanos() {
+        return expiresAtNanos - System.nanoTime();
+    }
+    
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+}
+
+// Supplies the token to attach to a request for a given audience (the service the token is valid for).
+interface TokenProvider {
+    String getToken(String audience);
+}
+
+// The original behaviour: one fixed token for every audience, valid forever.
+class FixedTokenProvider implements TokenProvider {
+    private final String token;
+    
+    public FixedTokenProvider(String token) {
+        this.token = token;
+    }
+    
+    @Override
+    public String getToken(String audience) {
+        return token;
+    }
+}
+
+// Caches one token per audience and refreshes it on a background scheduler ahead of expiry.
+// Callers only read a volatile field while the cached token is valid; they block (and share a single fetch)
+// only when there is no token yet or it has actually expired, e.g. because background refreshes kept failing.
+class RefreshingTokenProvider implements TokenProvider, AutoCloseable {
+    // The expensive call to the identity provider.
+    interface TokenSource {
+        AccessToken fetch(String audience);
+    }
+    
+    private static class CachedToken {
+        volatile AccessToken token;
+        // Guarded by the CachedToken: the one pending refresh, and a counter that retires superseded ones.
+        ScheduledFuture<?> refresh;
+        long generation;
+    }
+    
+    private final TokenSource source;
+    private final long refreshAheadNanos;
+    private final long retryDelayMillis;
+    private final ConcurrentHashMap<String, CachedToken> tokens = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "token-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    // Tokens are refreshed refreshAheadMillis before they expire, but never earlier than half way through their
+    // lifetime, so a short-lived token cannot make the scheduler fetch in a loop.
+    public RefreshingTokenProvider(TokenSource source, long refreshAheadMillis, long retryDelayMillis) {
+        if (refreshAheadMillis < 0 || retryDelayMillis <= 0) {
+            throw new IllegalArgumentException("Refresh-ahead must not be negative and the retry delay must be positive");
+        }
+        this.source = source;
+        this.refreshAheadNanos = TimeUnit.MILLISECONDS.toNanos(refreshAheadMillis);
+        this.retryDelayMillis = retryDelayMillis;
+    }
+    
+    @Override
+    public String getToken(String audience) {
+        CachedToken cached = tokens.computeIfAbsent(audience, key -> new CachedToken());
+        AccessToken token = cached.token;
+        if (token != null && !token.isExpired()) {
+            return token.value();
+        }
+        // Slow path: only one caller per audience fetches, the others wait and reuse its result.
+        synchronized (cached) {
+            token = cached.token;
+            if (token == null || token.isExpired()) {
+                token = source.fetch(audience);
+                cached.token = token;
+                scheduleRefresh(audience, cached, refreshDelayNanos(token));
+            }
+            return token.value();
+        }
+    }
+    
+    private long refreshDelayNanos(AccessToken token) {
+        long remaining = token.remainingNanos();
+        return remaining - Math.min(refreshAheadNanos, remaining / 2);
+    }
+    
+    // Called holding the CachedToken lock. Replaces any pending refresh, so each audience has one refresh chain.
+    private void scheduleRefresh(String audience, CachedToken cached, long delayNanos) {
+        if (cached.refresh != null) {
+            cached.refresh.cancel(false);
+            cached.refresh = null;
+        }
+        long generation = ++cached.generation;
+        if (delayNanos <= 0) {
+            // Already expired on arrival: the next caller fetches on the slow path.
+            return;
+        }
+        cached.refresh = scheduler.schedule(() -> refresh(audience, cached, generation), delayNanos,
+                TimeUnit.NANOSECONDS);
+    }
+    
+    private void refresh(String audience, CachedToken cached, long generation) {
+        synchronized (cached) {
+            if (cached.generation != generation) {
+                // A slow-path fetch scheduled a newer refresh in the meantime.
+                return;
+            }
+            cached.refresh = null;
+            try {
+                AccessToken fresh = source.fetch(audience);
+                cached.token = fresh;
+                scheduleRefresh(audience, cached, refreshDelayNanos(fresh));
+            } catch (RuntimeException e) {
+                // Keep serving the old token while it is still valid and try again shortly.
+                AccessToken current = cached.token;
+                long retryNanos = TimeUnit.MILLISECONDS.toNanos(retryDelayMillis);
+                if (current != null && current.remainingNanos() > retryNanos) {
+                    scheduleRefresh(audience, cached, retryNanos);
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
 }
 
 // A decorator for adding authentication headers.
 class AuthenticationDecorator extends WebServiceClientDecorator {
-    private String authToken;
+    private final TokenProvider tokenProvider;
+    private final String audience;
     
     public AuthenticationDecorator(WebServiceClient client, String authToken) {
+        this(client, new FixedTokenProvider(authToken), "default");
+    }
+    
+    public AuthenticationDecorator(WebServiceClient client, TokenProvider tokenProvider, String audience) {
         super(client);
-        this.authToken = authToken;
+        this.tokenProvider = tokenProvider;
+        this.audience = audience;
     }
     
     @Override
     public String get(String url) {
         // Simulate adding an authentication header.
-        System.out.println("[Authentication] Adding auth token: " + authToken);
+        System.out.println("[Authentication] Adding auth token: " + tokenProvider.getToken(audience));
         return client.get(url);
     }
+    
+    @Override
+    public CompletableFuture<String> getAsync(String url) {
+        try {
+            System.out.println("[Authentication] Adding auth token: " + tokenProvider.getToken(audience));
+            return client.getAsync(url);
+        } catch (RuntimeException e) {
+            // A failed token fetch fails the future, as the base getAsync() does for get()
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
+
+// A growable byte[] that is reused across calls instead of allocating a fresh buffer per request.
+class ScratchBuffer {
+    byte[] array;
+    
+    ScratchBuffer(int initialCapacity) {
+        array = new byte[initialCapacity];
+    }
+    
+    // Grows (doubling) until at least minCapacity bytes fit, keeping the first keep bytes.
+    void ensureCapacity(int minCapacity, int keep) {
+        if (array.length < minCapacity) {
+            byte[] grown = new byte[Math.max(minCapacity, array.length * 2)];
+            System.arraycopy(array, 0, grown, 0, keep);
+            array = grown;
+        }
+    }
+}
+
+// Codec SPI for the CompressionDecorator. A codec instance keeps native/working state (deflaters, checksums)
+// between calls and is therefore not thread-safe: the decorator pools instances and hands each one to a
+// single thread at a time. Codecs that are not in the JDK (zstd, brotli, ...) plug in by implementing this.
+interface CompressionCodec {
+    // Content-Encoding token, e.g. "gzip".
+    String name();
+    
+    // True if data[0, length) starts with this codec's framing (magic bytes). The decorator probes with only the
+    // first few bytes of a response (PROBE_LENGTH, or the whole response if it is shorter).
+    boolean isEncoded(byte[] data, int length);
+    
+    // Compresses input[0, length) into out starting at offset 0 and returns the number of bytes written.
+    int compress(byte[] input, int length, ScratchBuffer out);
+    
+    // Decompresses input[0, length) into out starting at offset 0 and returns the number of bytes written.
+    int decompress(byte[] input, int length, ScratchBuffer out);
+}
+
+// gzip (RFC 1952) on top of the JDK's raw deflate. Unlike GZIPOutputStream/GZIPInputStream, the Deflater,
+// Inflater and CRC32 are created once per codec and reset() between calls.
+class GzipCodec implements CompressionCodec {
+    private static final int HEADER_SIZE = 10;
+    private static final int TRAILER_SIZE = 8;
+    private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+    // Magic, CM=deflate, no flags, no mtime, no extra flags, OS=unknown.
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    
+    public GzipCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+    
+    public GzipCodec(int level) {
+        deflater = new Deflater(level, true);
+    }
+    
+    @Override
+    public String name() {
+        return "gzip";
+    }
+    
+    @Override
+    public boolean isEncoded(byte[] data, int length) {
+        return length >= HEADER_SIZE + TRAILER_SIZE && (data[0] & 0xff) == 0x1f && (data[1] & 0xff) == 0x8b;
+    }
+    
+    @Override
+    public int compress(byte[] input, int length, ScratchBuffer out) {
+        out.ensureCapacity(HEADER_SIZE + length / 2 + 64, 0);
+        System.arraycopy(HEADER, 0, out.array, 0, HEADER_SIZE);
+        int position = HEADER_SIZE;
+        
+        deflater.reset();
+        deflater.setInput(input, 0, length);
+        deflater.finish();
+        while (!deflater.finished()) {
+            if (position == out.array.length) {
+                out.ensureCapacity(out.array.length + 1, position);
+            }
+            position += deflater.deflate(out.array, position, out.array.length - position);
+        }
+        
+        crc.reset();
+        crc.update(input, 0, length);
+        out.ensureCapacity(position + TRAILER_SIZE, position);
+        writeIntLE(out.array, position, (int) crc.getValue());
+        writeIntLE(out.array, position + 4, length);
+        return position + TRAILER_SIZE;
+    }
+    
+    @Override
+    public int decompress(byte[] input, int length, ScratchBuffer out) {
+        if (!isEncoded(input, length) || input[2] != Deflater.DEFLATED) {
+            throw new IllegalArgumentException("Not gzip data");
+        }
+        int position = skipHeader(input, length);
+        int trailer = length - TRAILER_SIZE;
+        
+        inflater.reset();
+        inflater.setInput(input, position, trailer - position);
+        int written = 0;
+        try {
+            while (!inflater.finished()) {
+                if (written == out.array.length) {
+                    out.ensureCapacity(out.array.length + 1, written);
+                }
+                int n = inflater.inflate(out.array, written, out.array.length - written);
+                if (n == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated gzip data");
+                }
+                written += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt gzip data", e);
+        }
+        
+        crc.reset();
+        crc.update(out.array, 0, written);
+        if ((int) crc.getValue() != readIntLE(input, trailer) || written != readIntLE(input, trailer + 4)) {
+            throw new IllegalArgumentException("gzip checksum mismatch");
+        }
+        return written;
+    }
+    
+    // Skips the optional header fields a foreign encoder may have set.
+    private static int skipHeader(byte[] input, int length) {
+        int flags = input[3];
+        int position = HEADER_SIZE;
+        if ((flags & FEXTRA) != 0) {
+            position += 2 + ((input[position] & 0xff) | (input[position + 1] & 0xff) << 8);
+        }
+        if ((flags & FNAME) != 0) {
+            while (position < length && input[position++] != 0) { }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (position < length && input[position++] != 0) { }
+        }
+        if ((flags & FHCRC) != 0) {
+            position += 2;
+        }
+        if (position > length - TRAILER_SIZE) {
+            throw new IllegalArgumentException("Truncated gzip header");
+        }
+        return position;
+    }
+    
+    private static void writeIntLE(byte[] b, int offset, int value) {
+        b[offset] = (byte) value;
+        b[offset + 1] = (byte) (value >>> 8);
+        b[offset + 2] = (byte) (value >>> 16);
+        b[offset + 3] = (byte) (value >>> 24);
+    }
+    
+    private static int readIntLE(byte[] b, int offset) {
+        return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8 | (b[offset + 2] & 0xff) << 16 | (b[offset + 3] & 0xff) << 24;
+    }
 }
 
 // A decorator for compressing requests and decompressing responses.
+// Our client API carries payloads as Strings, so compressed bytes travel as a "wire string" with one char per
+// byte (ISO-8859-1). Responses that carry the codec's magic bytes are decompressed; plain responses pass through.
+// Codecs and their scratch buffers are pooled, so the hot path does not allocate a deflater or buffer per call.
+// Only clients that hand back such wire strings can deliver compressed responses (CompressedResponseStub does).
+// HttpWebServiceClient sends no Accept-Encoding and decodes bodies as UTF-8, which mangles binary data, so on
+// top of it every response simply passes through.
 class CompressionDecorator extends WebServiceClientDecorator {
+    // Bytes of a response the codec gets to look at before the rest is copied
+    static final int PROBE_LENGTH = 32;
+    
+    // A codec together with its input/output scratch space; only ever used by one thread at a time.
+    private static class Workspace {
+        final CompressionCodec codec;
+        final ScratchBuffer in = new ScratchBuffer(4096);
+        final ScratchBuffer out = new ScratchBuffer(4096);
+        
+        Workspace(CompressionCodec codec) {
+            this.codec = codec;
+        }
+    }
+    
+    private final Supplier<CompressionCodec> codecFactory;
+    private final ArrayBlockingQueue<Workspace> pool;
     
     public CompressionDecorator(WebServiceClient client) {
+        this(client, GzipCodec::new);
+    }
+    
+    public CompressionDecorator(WebServiceClient client, Supplier<CompressionCodec> codecFactory) {
         super(client);
+        this.codecFactory = codecFactory;
+        this.pool = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 2);
     }
     
     @Override
     public String get(String url) {
-        System.out.println("[Compression] Compressing request (simulated).");
+        // A GET carries no request body, so there is nothing to compress on the way out.
         String response = client.get(url);
-        System.out.println("[Compression] Decompressing response (simulated).");
-        return response;
+        return decode(response);
+    }
+    
+    @Override
+    public CompletableFuture<String> getAsync(String url) {
+        return client.getAsync(url).thenApply(this::decode);
+    }
+    
+    // Compresses a request/response body into a wire string (used for request bodies and by stub servers).
+    public String encode(String text) {
+        Workspace workspace = acquire();
+        try {
+            int length = utf8(text, workspace.in);
+            int compressed = workspace.codec.compress(workspace.in.array, length, workspace.out);
+            return new String(workspace.out.array, 0, compressed, StandardCharsets.ISO_8859_1);
+        } finally {
+            release(workspace);
+        }
+    }
+    
+    // Decompresses a wire string if it is encoded with our codec, otherwise returns it unchanged.
+    public String decode(String wire) {
+        Workspace workspace = acquire();
+        try {
+            int length = wire.length();
+            // Check the magic bytes first, so a plain response is not copied just to be passed through
+            // (the scratch buffer always holds at least PROBE_LENGTH bytes)
+            int probe = Math.min(length, PROBE_LENGTH);
+            if (!toBytes(wire, 0, probe, workspace.in.array) || !workspace.codec.isEncoded(workspace.in.array, probe)) {
+                System.out.println("[Compression] Response was not compressed, passing through.");
+                return wire;
+            }
+            workspace.in.ensureCapacity(length, probe);
+            byte[] bytes = workspace.in.array;
+            if (!toBytes(wire, probe, length, bytes)) {
+                return wire;
+            }
+            int decompressed = workspace.codec.decompress(bytes, length, workspace.out);
+            System.out.println("[Compression] Decompressed " + workspace.codec.name() + " response: "
+                    + length + " -> " + decompressed + " bytes.");
+            return new String(workspace.out.array, 0, decompressed, StandardCharsets.UTF_8);
+        } finally {
+            release(workspace);
+        }
+    }
+    
+    // Copies wire[from, to) into bytes, one byte per char. False if a char does not fit in a byte: then the
+    // string is not a wire string, so it cannot be compressed data.
+    private static boolean toBytes(String wire, int from, int to, byte[] bytes) {
+        for (int i = from; i < to; i++) {
+            char c = wire.charAt(i);
+            if (c > 0xff) {
+                return false;
+            }
+            bytes[i] = (byte) c;
+        }
+        return true;
+    }
+    
+    // Encodes text as UTF-8 into the scratch buffer without allocating an intermediate byte[].
+    private static int utf8(String text, ScratchBuffer buffer) {
+        buffer.ensureCapacity(text.length() * 3, 0);
+        byte[] b = buffer.array;
+        int n = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                b[n++] = (byte) c;
+            } else if (c < 0x800) {
+                b[n++] = (byte) (0xc0 | c >> 6);
+                b[n++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, text.charAt(++i));
+                b[n++] = (byte) (0xf0 | cp >> 18);
+                b[n++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                b[n++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                b[n++] = (byte) (0x80 | cp & 0x3f);
+            } else {
+                if (Character.isSurrogate(c)) {
+                    c = '?';
+                }
+                b[n++] = (byte) (0xe0 | c >> 12);
+                b[n++] = (byte) (0x80 | c >> 6 & 0x3f);
+                b[n++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        return n;
+    }
+    
+    private Workspace acquire() {
+        Workspace workspace = pool.poll();
+        return workspace != null ? workspace : new Workspace(codecFactory.get());
+    }
+    
+    private void release(Workspace workspace) {
+        // If the pool is already full the workspace is simply dropped.
+        pool.offer(workspace);
+    }
+}
+
+// Stands in for a server that sends compressed responses: it compresses whatever the wrapped client returns,
+// so a CompressionDecorator further up the chain has real work to do.
+class CompressedResponseStub extends WebServiceClientDecorator {
+    private final CompressionDecorator encoder;
+    
+    public CompressedResponseStub(WebServiceClient client) {
+        super(client);
+        this.encoder = new CompressionDecorator(client);
+    }
+    
+    @Override
+    public String get(String url) {
+        return encoder.encode(client.get(url));
+    }
+    
+    @Override
+    public CompletableFuture<String> getAsync(String url) {
+        return client.getAsync(url).thenApply(encoder::encode);
+    }
+}
+
+// A bounded response cache used by the CachingDecorator.
+// Entries are kept in least-recently-used order and evicted once either the entry limit or the byte limit
+// is exceeded. Every entry expires after its time-to-live, and failed requests can be cached for a
+// (usually shorter) time so a broken URL is not hammered on every call (negative caching).
+// All public methods are synchronized so one cache can be shared by concurrent callers.
+class ResponseCache {
+    // A single cached outcome: either a response or the failure that the request produced.
+    static class CachedResponse {
+        private final String response;
+        private final RuntimeException failure;
+        private final long expiresAt;
+        private final long bytes;
+        
+        CachedResponse(String response, RuntimeException failure, long expiresAt, long bytes) {
+            this.response = response;
+            this.failure = failure;
+            this.expiresAt = expiresAt;
+            this.bytes = bytes;
+        }
+        
+        // Returns the cached response, or rethrows the cached failure for a negative entry.
+        public String get() {
+            if (failure != null) {
+                throw failure;
+            }
+            return response;
+        }
+        
+        // The cached outcome as an already-completed future, for the asynchronous path.
+        public CompletableFuture<String> toFuture() {
+            return failure != null
+                    ? CompletableFuture.failedFuture(failure)
+                    : CompletableFuture.completedFuture(response);
+        }
+        
+        public boolean isNegative() {
+            return failure != null;
+        }
+    }
+    
+    // Rough per-entry bookkeeping cost (map node, entry object, string headers).
+    private static final long ENTRY_OVERHEAD_BYTES = 96;
+    
+    // accessOrder = true turns the LinkedHashMap into an LRU list: get() moves an entry to the tail.
+    private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private long currentBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    
+    public ResponseCache(int maxEntries, long maxBytes, long ttlMillis, long negativeTtlMillis) {
+        if (maxEntries <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache limits must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+    }
+    
+    // Returns the live entry for the url, or null on a miss. Expired entries are dropped on the way.
+    public synchronized CachedResponse lookup(String url) {
+        CachedResponse entry = entries.get(url);
+        if (entry != null && entry.expiresAt - System.nanoTime() <= 0) {
+            remove(url);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+    
+    public void put(String url, String response) {
+        put(url, response, TimeUnit.NANOSECONDS.toMillis(ttlNanos));
+    }
+    
+    // Like lookup(), but without counting a hit or miss (used for internal re-checks).
+    public synchronized CachedResponse peek(String url) {
+        CachedResponse entry = entries.get(url);
+        return entry != null && entry.expiresAt - System.nanoTime() > 0 ? entry : null;
+    }
+    
+    // Stores a response with its own time-to-live instead of the cache-wide default. Returns the entry even
+    // when it is too large to be kept, so the caller can still serve it.
+    public synchronized CachedResponse put(String url, String response, long ttlMillis) {
+        CachedResponse entry = new CachedResponse(response, null,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis), sizeOf(url, response));
+        store(url, entry);
+        return entry;
+    }
+    
+    public synchronized void putFailure(String url, RuntimeException failure) {
+        if (negativeTtlNanos <= 0) {
+            return;
+        }
+        store(url, new CachedResponse(null, failure, System.nanoTime() + negativeTtlNanos, sizeOf(url, null)));
+    }
+    
+    public synchronized void remove(String url) {
+        CachedResponse removed = entries.remove(url);
+        if (removed != null) {
+            currentBytes -= removed.bytes;
+        }
+    }
+    
+    private void store(String url, CachedResponse entry) {
+        remove(url);
+        if (entry.bytes > maxBytes) {
+            // A single response larger than the whole cache is never worth keeping.
+            return;
+        }
+        entries.put(url, entry);
+        currentBytes += entry.bytes;
+        evictIfNeeded();
+    }
+    
+    // Walks from the least recently used end until both limits are satisfied again.
+    private void evictIfNeeded() {
+        Iterator<CachedResponse> it = entries.values().iterator();
+        while ((entries.size() > maxEntries || currentBytes > maxBytes) && it.hasNext()) {
+            CachedResponse eldest = it.next();
+            it.remove();
+            currentBytes -= eldest.bytes;
+            evictions++;
+        }
+    }
+    
+    private static long sizeOf(String url, String response) {
+        long chars = url.length() + (response == null ? 0 : response.length());
+        return ENTRY_OVERHEAD_BYTES + chars * 2;
+    }
+    
+    public synchronized int size() {
+        return entries.size();
+    }
+    
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+    
+    public synchronized long getHits() {
+        return hits;
+    }
+    
+    public synchronized long getMisses() {
+        return misses;
+    }
+    
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+    
+    @Override
+    public synchronized String toString() {
+        return "ResponseCache[entries=" + entries.size() + ", bytes=" + currentBytes
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+}
+
+// An optional persistent second-level tier for the CachingDecorator.
+// Responses are appended to fixed-size segment files that are memory-mapped, so reads and writes are plain
+// memory accesses and the data survives restarts. The index (key hash -> segment and offset) lives in an
+// off-heap direct buffer; on startup it is rebuilt by scanning record headers and keys only, so values are
+// never deserialized onto the heap until they are actually requested. Overwritten, removed and expired
+// records become garbage, and a background task compacts mostly-dead segments into the active one.
+class DiskCacheTier implements AutoCloseable {
+    // Record layout: crc32 | keyLength | valueLength (-1 = removed) | expiresAtMillis | key | value
+    private static final int RECORD_HEADER = 20;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    // Index slot layout: keyHash (0 = empty) | segmentId | offset
+    private static final int SLOT_SIZE = 16;
+    
+    private static class Segment {
+        final int id;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int writePosition;
+        long liveBytes;
+        
+        Segment(int id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+    
+    private final Path directory;
+    private final int segmentSize;
+    private final long ttlMillis;
+    private final double compactionThreshold;
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final CRC32 crc = new CRC32();
+    private Segment active;
+    private ByteBuffer index;
+    private int indexMask;
+    private int indexSize;
+    private final ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "disk-cache-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    // Segments whose live bytes drop below compactionThreshold of their written bytes are compacted.
+    public DiskCacheTier(Path directory, int segmentSize, long ttlMillis, double compactionThreshold,
+                         long compactionIntervalMillis) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.ttlMillis = ttlMillis;
+        this.compactionThreshold = compactionThreshold;
+        allocateIndex(1024);
+        try {
+            Files.createDirectories(directory);
+            recover();
+            if (active == null) {
+                active = createSegment(0);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open disk cache in " + directory, e);
+        }
+        compactor.scheduleWithFixedDelay(this::compact, compactionIntervalMillis, compactionIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+    
+    public synchronized String get(String url) {
+        byte[] key = url.getBytes(StandardCharsets.UTF_8);
+        int slot = findSlot(key, hash(key));
+        if (slot < 0 || index.getLong(slot) == 0) {
+            return null;
+        }
+        Segment segment = segments.get(index.getInt(slot + 8));
+        int offset = index.getInt(slot + 12);
+        if (segment.buffer.getLong(offset + 12) <= System.currentTimeMillis()) {
+            return null;
+        }
+        byte[] value = new byte[segment.buffer.getInt(offset + 8)];
+        segment.buffer.get(offset + RECORD_HEADER + key.length, value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+    
+    // When the stored response for url expires, or 0 if there is none
+    public synchronized long getExpiresAtMillis(String url) {
+        byte[] key = url.getBytes(StandardCharsets.UTF_8);
+        int slot = findSlot(key, hash(key));
+        if (slot < 0 || index.getLong(slot) == 0) {
+            return 0;
+        }
+        return segments.get(index.getInt(slot + 8)).buffer.getLong(index.getInt(slot + 12) + 12);
+    }
+    
+    public synchronized void put(String url, String response) {
+        append(url.getBytes(StandardCharsets.UTF_8), response.getBytes(StandardCharsets.UTF_8),
+                System.currentTimeMillis() + ttlMillis);
+    }
+    
+    public synchronized void remove(String url) {
+        byte[] key = url.getBytes(StandardCharsets.UTF_8);
+        int slot = findSlot(key, hash(key));
+        if (slot >= 0 && index.getLong(slot) != 0) {
+            append(key, null, 0);
+        }
+    }
+    
+    public synchronized int size() {
+        return indexSize;
+    }
+    
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+    
+    // Appends a record to the active segment (rolling to a new one when full) and points the index at it.
+    private void append(byte[] key, byte[] value, long expiresAtMillis) {
+        int length = RECORD_HEADER + key.length + (value == null ? 0 : value.length);
+        if (length > segmentSize) {
+            return;
+        }
+        if (active.writePosition + length > segmentSize) {
+            try {
+                active = createSegment(active.id + 1);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not create disk cache segment", e);
+            }
+        }
+        int offset = active.writePosition;
+        MappedByteBuffer buffer = active.buffer;
+        buffer.putInt(offset + 4, key.length);
+        buffer.putInt(offset + 8, value == null ? -1 : value.length);
+        buffer.putLong(offset + 12, expiresAtMillis);
+        buffer.put(offset + RECORD_HEADER, key);
+        if (value != null) {
+            buffer.put(offset + RECORD_HEADER + key.length, value);
+        }
+        // The checksum is written last: a record torn by a crash fails it and ends recovery of the segment.
+        buffer.putInt(offset, checksum(buffer, offset, length));
+        active.writePosition += length;
+        if (value == null) {
+            unindex(key);
+        } else {
+            index(key, active, offset, length);
+        }
+    }
+    
+    // Rebuilds the index from the segment files, oldest first so later records win.
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                int id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(id, mapSegment(id, file));
+            }
+        }
+        long now = System.currentTimeMillis();
+        for (Segment segment : segments.values()) {
+            MappedByteBuffer buffer = segment.buffer;
+            int offset = 0;
+            while (offset + RECORD_HEADER <= segmentSize) {
+                int keyLength = buffer.getInt(offset + 4);
+                int valueLength = buffer.getInt(offset + 8);
+                int length = RECORD_HEADER + keyLength + Math.max(valueLength, 0);
+                if (keyLength <= 0 || valueLength < -1 || offset + length > segmentSize
+                        || buffer.getInt(offset) != checksum(buffer, offset, length)) {
+                    break;
+                }
+                byte[] key = new byte[keyLength];
+                buffer.get(offset + RECORD_HEADER, key);
+                if (valueLength < 0 || buffer.getLong(offset + 12) <= now) {
+                    unindex(key);
+                } else {
+                    index(key, segment, offset, length);
+                }
+                offset += length;
+            }
+            segment.writePosition = offset;
+            active = segment;
+        }
+    }
+    
+    // Copies the live records of mostly-dead sealed segments into the active segment and deletes the old files.
+    // A removal record is copied too while an older segment survives: that segment may still hold the value
+    // it removed, which recover() would otherwise bring back.
+    void compact() {
+        synchronized (this) {
+            List<Segment> candidates = new ArrayList<>();
+            for (Segment segment : segments.values()) {
+                if (segment != active && segment.liveBytes < segment.writePosition * compactionThreshold) {
+                    candidates.add(segment);
+                }
+            }
+            long now = System.currentTimeMillis();
+            for (Segment segment : candidates) {
+                MappedByteBuffer buffer = segment.buffer;
+                int offset = 0;
+                while (offset < segment.writePosition) {
+                    int keyLength = buffer.getInt(offset + 4);
+                    int valueLength = buffer.getInt(offset + 8);
+                    int length = RECORD_HEADER + keyLength + Math.max(valueLength, 0);
+                    byte[] key = new byte[keyLength];
+                    buffer.get(offset + RECORD_HEADER, key);
+                    int slot = findSlot(key, hash(key));
+                    boolean live = slot >= 0 && index.getLong(slot) != 0
+                            && index.getInt(slot + 8) == segment.id && index.getInt(slot + 12) == offset;
+                    if (live && buffer.getLong(offset + 12) > now) {
+                        byte[] value = new byte[valueLength];
+                        buffer.get(offset + RECORD_HEADER + keyLength, value);
+                        append(key, value, buffer.getLong(offset + 12));
+                    } else if (live) {
+                        unindex(key);
+                    } else if (valueLength < 0 && segments.firstKey() < segment.id
+                            && (slot < 0 || index.getLong(slot) == 0)) {
+                        // Not indexed means no newer value supersedes this removal
+                        append(key, null, 0);
+                    }
+                    offset += length;
+                }
+                segments.remove(segment.id);
+                try {
+                    segment.channel.close();
+                    // The mapping itself is released when the buffer is garbage collected.
+                    Files.deleteIfExists(segment.path);
+                } catch (IOException e) {
+                    // The segment is no longer indexed; a leftover file only holds dead records.
+                }
+            }
+        }
+    }
+    
+    private Segment createSegment(int id) throws IOException {
+        Segment segment = mapSegment(id, directory.resolve(SEGMENT_PREFIX + id + SEGMENT_SUFFIX));
+        segments.put(id, segment);
+        return segment;
+    }
+    
+    private Segment mapSegment(int id, Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        return new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+    }
+    
+    private int checksum(ByteBuffer buffer, int offset, int length) {
+        crc.reset();
+        crc.update(buffer.slice(offset + 4, length - 4));
+        return (int) crc.getValue();
+    }
+    
+    // 64-bit FNV-1a; 0 is reserved for empty index slots.
+    private static long hash(byte[] key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return h == 0 ? 1 : h;
+    }
+    
+    private void allocateIndex(int slots) {
+        index = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+        indexMask = slots - 1;
+        indexSize = 0;
+    }
+    
+    // Linear probing. Returns the byte position of the slot holding the key, or of the empty slot where it
+    // would go. Hash matches are confirmed against the key stored in the segment.
+    private int findSlot(byte[] key, long hash) {
+        int i = (int) (hash ^ (hash >>> 32)) & indexMask;
+        while (true) {
+            int slot = i * SLOT_SIZE;
+            long stored = index.getLong(slot);
+            if (stored == 0) {
+                return slot;
+            }
+            if (stored == hash && keyEquals(segments.get(index.getInt(slot + 8)), index.getInt(slot + 12), key)) {
+                return slot;
+            }
+            i = (i + 1) & indexMask;
+        }
+    }
+    
+    private static boolean keyEquals(Segment segment, int offset, byte[] key) {
+        MappedByteBuffer buffer = segment.buffer;
+        if (buffer.getInt(offset + 4) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(offset + RECORD_HEADER + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void index(byte[] key, Segment segment, int offset, int length) {
+        long hash = hash(key);
+        int slot = findSlot(key, hash);
+        if (index.getLong(slot) != 0) {
+            release(slot);
+        } else {
+            indexSize++;
+        }
+        index.putLong(slot, hash);
+        index.putInt(slot + 8, segment.id);
+        index.putInt(slot + 12, offset);
+        segment.liveBytes += length;
+        if (indexSize * 2 > indexMask + 1) {
+            resizeIndex();
+        }
+    }
+    
+    private void unindex(byte[] key) {
+        int slot = findSlot(key, hash(key));
+        if (index.getLong(slot) == 0) {
+            return;
+        }
+        release(slot);
+        indexSize--;
+        // Backward-shift deletion keeps every probe chain unbroken without tombstones.
+        int hole = slot / SLOT_SIZE;
+        int i = hole;
+        while (true) {
+            i = (i + 1) & indexMask;
+            long hash = index.getLong(i * SLOT_SIZE);
+            if (hash == 0) {
+                break;
+            }
+            int home = (int) (hash ^ (hash >>> 32)) & indexMask;
+            if (((i - home) & indexMask) >= ((i - hole) & indexMask)) {
+                copySlot(i, hole);
+                hole = i;
+            }
+        }
+        index.putLong(hole * SLOT_SIZE, 0);
+    }
+    
+    // The record a slot points to is being replaced or removed: it no longer counts as live.
+    private void release(int slot) {
+        Segment old = segments.get(index.getInt(slot + 8));
+        int offset = index.getInt(slot + 12);
+        old.liveBytes -= RECORD_HEADER + old.buffer.getInt(offset + 4) + Math.max(old.buffer.getInt(offset + 8), 0);
+    }
+    
+    private void copySlot(int from, int to) {
+        index.putLong(to * SLOT_SIZE, index.getLong(from * SLOT_SIZE));
+        index.putInt(to * SLOT_SIZE + 8, index.getInt(from * SLOT_SIZE + 8));
+        index.putInt(to * SLOT_SIZE + 12, index.getInt(from * SLOT_SIZE + 12));
+    }
+    
+    private void resizeIndex() {
+        ByteBuffer old = index;
+        int oldSlots = indexMask + 1;
+        int size = indexSize;
+        allocateIndex(oldSlots * 2);
+        for (int i = 0; i < oldSlots; i++) {
+            long hash = old.getLong(i * SLOT_SIZE);
+            if (hash == 0) {
+                continue;
+            }
+            int j = (int) (hash ^ (hash >>> 32)) & indexMask;
+            while (index.getLong(j * SLOT_SIZE) != 0) {
+                j = (j + 1) & indexMask;
+            }
+            index.putLong(j * SLOT_SIZE, hash);
+            index.putInt(j * SLOT_SIZE + 8, old.getInt(i * SLOT_SIZE + 8));
+            index.putInt(j * SLOT_SIZE + 12, old.getInt(i * SLOT_SIZE + 12));
+        }
+        indexSize = size;
+    }
+    
+    @Override
+    public synchronized void close() {
+        compactor.shutdownNow();
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                // Data has already been forced to disk.
+            }
+        }
     }
 }
 
 // A decorator for caching responses.
 class CachingDecorator extends WebServiceClientDecorator {
-    private Map<String, String> cache = new HashMap<>();
+    private final ResponseCache cache;
+    private final DiskCacheTier diskTier;
     
     public CachingDecorator(WebServiceClient client) {
+        // Default limits: 10,000 responses, 64 MB, 5 minute TTL, 30 second negative TTL.
+        this(client, new ResponseCache(10_000, 64L * 1024 * 1024, 5 * 60 * 1000, 30 * 1000));
+    }
+    
+    public CachingDecorator(WebServiceClient client, ResponseCache cache) {
+        this(client, cache, null);
+    }
+    
+    // diskTier may be null; when present it is consulted on a memory miss and filled on every fetch.
+    public CachingDecorator(WebServiceClient client, ResponseCache cache, DiskCacheTier diskTier) {
         super(client);
+        this.cache = cache;
+        this.diskTier = diskTier;
+    }
+    
+    public ResponseCache getCache() {
+        return cache;
     }
     
     @Override
     public String get(String url) {
-        if (cache.containsKey(url)) {
+        ResponseCache.CachedResponse cached = lookup(url);
+        if (cached != null) {
             System.out.println("[Caching] Returning cached response for: " + url);
-            return cache.get(url);
-        } else {
-            System.out.println("[Caching] No cached response for: " + url + ", making request.");
-            String response = client.get(url);
-            cache.put(url, response);
+            return cached.get();
+        }
+        System.out.println("[Caching] No cached response for: " + url + ", making request.");
+        String response;
+        try {
+            response = client.get(url);
+        } catch (RuntimeException e) {
+            cache.putFailure(url, e);
+            throw e;
+        }
+        store(url, response);
+        return response;
+    }
+    
+    @Override
+    public CompletableFuture<String> getAsync(String url) {
+        ResponseCache.CachedResponse cached = lookup(url);
+        if (cached != null) {
+            System.out.println("[Caching] Returning cached response for: " + url);
+            return cached.toFuture();
+        }
+        System.out.println("[Caching] No cached response for: " + url + ", making request.");
+        return client.getAsync(url).whenComplete((response, failure) -> {
+            if (failure == null) {
+                store(url, response);
+            } else {
+                cache.putFailure(url, unchecked(failure));
+            }
+        });
+    }
+    
+    // Memory first, then disk; a disk hit is promoted into memory.
+    private ResponseCache.CachedResponse lookup(String url) {
+        ResponseCache.CachedResponse cached = cache.lookup(url);
+        if (cached != null || diskTier == null) {
+            return cached;
+        }
+        String response = diskTier.get(url);
+        long remainingMillis = diskTier.getExpiresAtMillis(url) - System.currentTimeMillis();
+        if (response == null || remainingMillis <= 0) {
+            return null;
+        }
+        System.out.println("[Caching] Loaded response from disk for: " + url);
+        // Promoted for what is left of the disk record's lifetime, not a fresh memory TTL. The entry is served
+        // as built, not read back: one larger than the memory cache is never stored there.
+        return cache.put(url, response, remainingMillis);
+    }
+    
+    private void store(String url, String response) {
+        cache.put(url, response);
+        if (diskTier != null) {
+            diskTier.put(url, response);
+        }
+    }
+}
+
+// A thread-safe caching decorator that coalesces concurrent requests (single-flight).
+// The first caller that misses the cache for a URL becomes the "leader" and makes the downstream call;
+// every other caller that arrives while that call is in flight waits on the same future and shares its
+// result, so a cold URL is fetched only once no matter how many threads ask for it at the same time.
+class ConcurrentCachingDecorator extends WebServiceClientDecorator {
+    private final ResponseCache cache;
+    private final ConcurrentHashMap<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+    
+    public ConcurrentCachingDecorator(WebServiceClient client) {
+        this(client, new ResponseCache(10_000, 64L * 1024 * 1024, 5 * 60 * 1000, 30 * 1000));
+    }
+    
+    public ConcurrentCachingDecorator(WebServiceClient client, ResponseCache cache) {
+        super(client);
+        this.cache = cache;
+    }
+    
+    public ResponseCache getCache() {
+        return cache;
+    }
+    
+    // Number of callers that joined another caller's in-flight request instead of calling downstream.
+    public long getCoalescedRequests() {
+        return coalesced.get();
+    }
+    
+    @Override
+    public String get(String url) {
+        ResponseCache.CachedResponse cached = cache.lookup(url);
+        if (cached != null) {
+            return cached.get();
+        }
+        
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> leader = inFlight.putIfAbsent(url, mine);
+        if (leader != null) {
+            coalesced.incrementAndGet();
+            return WebServiceClient.join(leader);
+        }
+        
+        try {
+            // A previous leader may have filled the cache between our lookup and putIfAbsent.
+            cached = cache.peek(url);
+            String response = cached != null ? cached.get() : fetch(url);
+            mine.complete(response);
             return response;
+        } catch (Throwable t) {
+            // Errors too: waiters already joined on mine would otherwise block forever
+            mine.completeExceptionally(t);
+            throw t;
+        } finally {
+            // The cache is filled before the future is removed, so late arrivals always find one or the other.
+            inFlight.remove(url, mine);
         }
     }
+    
+    // The asynchronous path coalesces the same way, but waiters get a copy of the leader's future
+    // instead of blocking on it.
+    @Override
+    public CompletableFuture<String> getAsync(String url) {
+        ResponseCache.CachedResponse cached = cache.lookup(url);
+        if (cached != null) {
+            return cached.toFuture();
+        }
+        
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> leader = inFlight.putIfAbsent(url, mine);
+        if (leader != null) {
+            coalesced.incrementAndGet();
+            return leader.copy();
+        }
+        
+        cached = cache.peek(url);
+        CompletableFuture<String> source;
+        try {
+            source = cached != null ? cached.toFuture() : fetchAsync(url);
+        } catch (Throwable t) {
+            // mine is already published in inFlight: it must complete even if the fetch throws instead of
+            // returning a failed future, or every later caller for this url waits on it forever
+            source = CompletableFuture.failedFuture(t);
+        }
+        source.whenComplete((response, failure) -> {
+            if (failure == null) {
+                mine.complete(response);
+            } else {
+                mine.completeExceptionally(unchecked(failure));
+            }
+            inFlight.remove(url, mine);
+        });
+        return mine.copy();
+    }
+    
+    private CompletableFuture<String> fetchAsync(String url) {
+        System.out.println("[Caching] No cached response for: " + url + ", making request.");
+        return client.getAsync(url).whenComplete((response, failure) -> {
+            if (failure == null) {
+                cache.put(url, response);
+            } else {
+                cache.putFailure(url, unchecked(failure));
+            }
+        });
+    }
+    
+    private String fetch(String url) {
+        System.out.println("[Caching] No cached response for: " + url + ", making request.");
+        String response;
+        try {
+            response = client.get(url);
+        } catch (RuntimeException e) {
+            cache.putFailure(url, e);
+            throw e;
+        }
+        cache.put(url, response);
+        return response;
+    }
+}
+
+// Fans a batch of URLs out over any WebServiceClient (typically a decorated chain).
+// Each call runs on its own virtual thread when the JDK provides them (Java 21+), otherwise on a pooled
+// platform thread. At most maxConcurrency calls run at once, each call is cancelled if it takes longer
+// than the per-request timeout, and results come back in the same order as the input URLs.
+class BulkWebServiceClient implements AutoCloseable {
+    private final WebServiceClient client;
+    private final Semaphore permits;
+    private final long timeoutMillis;
+    private final ExecutorService executor;
+    
+    public BulkWebServiceClient(WebServiceClient client, int maxConcurrency, long timeoutMillis) {
+        this(client, maxConcurrency, timeoutMillis, newPerTaskExecutor());
+    }
+    
+    public BulkWebServiceClient(WebServiceClient client, int maxConcurrency, long timeoutMillis,
+                                ExecutorService executor) {
+        if (maxConcurrency <= 0 || timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Concurrency limit and timeout must be positive");
+        }
+        this.client = client;
+        this.permits = new Semaphore(maxConcurrency);
+        this.timeoutMillis = timeoutMillis;
+        this.executor = executor;
+    }
+    
+    // Looked up reflectively so the example still compiles and runs on JDKs without virtual threads.
+    static ExecutorService newPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+    
+    // Fetches every URL and returns the responses in input order. If any request fails or times out,
+    // the remaining requests are cancelled and that failure is thrown.
+    public List<String> getAll(Collection<String> urls) {
+        List<CompletableFuture<String>> results = new ArrayList<>(urls.size());
+        try {
+            for (String url : urls) {
+                // Taking the permit before submitting also bounds the number of threads in the fallback pool.
+                permits.acquire();
+                results.add(submit(url));
+            }
+            List<String> responses = new ArrayList<>(results.size());
+            for (CompletableFuture<String> result : results) {
+                responses.add(WebServiceClient.join(result));
+            }
+            return responses;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            results.forEach(result -> result.cancel(true));
+            throw new IllegalStateException("Interrupted while fanning out requests", e);
+        } catch (RuntimeException e) {
+            results.forEach(result -> result.cancel(true));
+            throw e;
+        }
+    }
+    
+    private CompletableFuture<String> submit(String url) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        // Whoever claims the request first returns its permit: the task body when it starts, or the timeout
+        // for a request that never started. A running request keeps its permit until its body ends, because
+        // a blocked client.get() may ignore the interrupt and outlive its timeout.
+        AtomicBoolean claimed = new AtomicBoolean();
+        Future<?> task;
+        try {
+            task = executor.submit(() -> {
+                if (!claimed.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    result.complete(client.get(url));
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((response, failure) -> {
+                    if (claimed.compareAndSet(false, true)) {
+                        permits.release();
+                    }
+                    if (failure != null) {
+                        task.cancel(true);
+                    }
+                });
+        return result;
+    }
+    
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
 }
 
 // A demonstration class to show how to chain the decorators together.
@@ -112,7 +1803,8 @@ public class DecoratorExample {
         client = new LoggingDecorator(client);
         client = new AuthenticationDecorator(client, "my-secret-token");
         client = new CompressionDecorator(client);
-        client = new CachingDecorator(client);
+        CachingDecorator caching = new CachingDecorator(client);
+        client = caching;
         
         // First call: goes through all decorators and retrieves a fresh response.
         System.out.println("First call:");
@@ -123,5 +1815,142 @@ public class DecoratorExample {
         System.out.println("\nSecond call:");
         String response2 = client.get("http://example.com/data");
         System.out.println("Final response: " + response2);
+        
+        // Hit/miss/eviction counters help size the cache.
+        System.out.println("\nCache stats: " + caching.getCache());
+        
+        // Disk tier: responses survive a restart. The second decorator (a "new process") finds the response on
+        // disk and does not call the downstream client.
+        System.out.println("\nPersistent disk tier:");
+        try {
+            Path cacheDir = Files.createTempDirectory("decorator-cache");
+            try (DiskCacheTier disk = new DiskCacheTier(cacheDir, 1 << 20, 60_000, 0.5, 10_000)) {
+                new CachingDecorator(new BasicWebServiceClient(), new ResponseCache(100, 1 << 20, 60_000, 0), disk)
+                        .get("http://example.com/persistent");
+            }
+            try (DiskCacheTier disk = new DiskCacheTier(cacheDir, 1 << 20, 60_000, 0.5, 10_000)) {
+                String restored = new CachingDecorator(new BasicWebServiceClient(),
+                        new ResponseCache(100, 1 << 20, 60_000, 0), disk).get("http://example.com/persistent");
+                System.out.println("Final response after restart: " + restored);
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(cacheDir)) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(cacheDir);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        
+        // Token refresh: the provider fetches a new token in the background before the old one expires,
+        // so the second call gets a fresh token without waiting for the (slow) identity provider.
+        System.out.println("\nRefreshing auth tokens:");
+        AtomicInteger issued = new AtomicInteger();
+        RefreshingTokenProvider.TokenSource identityProvider = audience -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new AccessToken(audience + "-token-" + issued.incrementAndGet(), 500);
+        };
+        try (RefreshingTokenProvider tokens = new RefreshingTokenProvider(identityProvider, 200, 50)) {
+            WebServiceClient authClient = new AuthenticationDecorator(new BasicWebServiceClient(), tokens, "example.com");
+            authClient.get("http://example.com/data");
+            try {
+                Thread.sleep(600);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            authClient.get("http://example.com/data");
+        }
+        
+        // Asynchronous logging: events go into a ring buffer and a background thread writes them in batches.
+        System.out.println("\nRing-buffer logging:");
+        try (LogEventRing ring = LogEventRing.toStdout(1024, LogEventRing.OverflowPolicy.DROP)) {
+            WebServiceClient loggedClient = new AsyncLoggingDecorator(new BasicWebServiceClient(), ring);
+            for (int i = 1; i <= 3; i++) {
+                loggedClient.get("http://example.com/item/" + i);
+            }
+        }
+        
+        // Real compression: the stub server gzips its (large) response and the decorator inflates it again.
+        System.out.println("\nCompressed response:");
+        WebServiceClient bigPageServer = new BasicWebServiceClient() {
+            @Override
+            public String get(String url) {
+                return super.get(url).repeat(200);
+            }
+        };
+        WebServiceClient compressedClient = new CompressionDecorator(new CompressedResponseStub(bigPageServer));
+        String page = compressedClient.get("http://example.com/big");
+        System.out.println("Final response length: " + page.length() + " chars");
+        
+        // Concurrent callers: many threads ask for the same cold URL, only one request goes downstream.
+        System.out.println("\nConcurrent calls:");
+        AtomicInteger downstreamCalls = new AtomicInteger();
+        WebServiceClient slowClient = new BasicWebServiceClient() {
+            @Override
+            public String get(String url) {
+                downstreamCalls.incrementAndGet();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.get(url);
+            }
+        };
+        ConcurrentCachingDecorator concurrentCaching = new ConcurrentCachingDecorator(slowClient);
+        int callers = 8;
+        CountDownLatch done = new CountDownLatch(callers);
+        for (int i = 0; i < callers; i++) {
+            new Thread(() -> {
+                concurrentCaching.get("http://example.com/hot");
+                done.countDown();
+            }).start();
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println(callers + " callers, " + downstreamCalls.get() + " downstream call(s), "
+                + concurrentCaching.getCoalescedRequests() + " coalesced");
+        
+        // Asynchronous calls: the same decorator chain over a real HTTP client talking to a local stub server.
+        // All requests are in flight at once and no caller thread blocks until the final join.
+        System.out.println("\nAsynchronous calls:");
+        try (StubWebServer server = StubWebServer.start(100)) {
+            WebServiceClient asyncClient = new HttpWebServiceClient();
+            asyncClient = new LoggingDecorator(asyncClient);
+            asyncClient = new AuthenticationDecorator(asyncClient, "my-secret-token");
+            asyncClient = new CompressionDecorator(asyncClient);
+            asyncClient = new CachingDecorator(asyncClient);
+            
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 1; i <= 3; i++) {
+                futures.add(asyncClient.getAsync(server.baseUrl() + "/data/" + i));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+            for (CompletableFuture<String> future : futures) {
+                System.out.println("Final response: " + future.join());
+            }
+            
+            // Bulk fan-out: many blocking calls at once, bounded by a concurrency limit, results in input order.
+            System.out.println("\nBulk fan-out:");
+            List<String> urls = new ArrayList<>();
+            for (int i = 1; i <= 50; i++) {
+                urls.add(server.baseUrl() + "/page/" + i);
+            }
+            try (BulkWebServiceClient bulk = new BulkWebServiceClient(new HttpWebServiceClient(), 16, 2000)) {
+                long start = System.nanoTime();
+                List<String> responses = bulk.getAll(urls);
+                long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                System.out.println("Fetched " + responses.size() + " URLs in " + elapsedMillis + " ms, last: "
+                        + responses.get(responses.size() - 1));
+            }
+        }
     }
 }